@@ -0,0 +1,51 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.swagger.formatter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A cache for rendered output of the formatter, the key should capture everything that influences the output (e.g. the fingerprint)
+ */
+public interface SwaggerCache {
+	/**
+	 * Returns the cached content as a read-only buffer or null if there is none
+	 * Depending on the implementation this is a view or a copy on the heap (e.g. if the memory is reused after eviction), use write() to send the content without copying it
+	 */
+	public ByteBuffer get(String key) throws IOException;
+	
+	/**
+	 * Writes the cached content to the channel, returns false if there is nothing cached for the key
+	 */
+	public boolean write(String key, WritableByteChannel target) throws IOException;
+	
+	/**
+	 * Writes the cached content to the output, returns false if there is nothing cached for the key
+	 */
+	public boolean write(String key, OutputStream output) throws IOException;
+	
+	public void put(String key, byte[] content) throws IOException;
+	
+	/**
+	 * Removes the content for the key, e.g. when it is superseded by a new fingerprint
+	 */
+	public void remove(String key) throws IOException;
+}
@@ -0,0 +1,236 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.swagger.formatter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import be.nabu.libs.swagger.api.SwaggerDefinition;
+import be.nabu.libs.swagger.api.SwaggerInfo;
+import be.nabu.libs.swagger.api.SwaggerPath;
+import be.nabu.libs.types.java.BeanInstance;
+
+/**
+ * Renders a collection of definitions in parallel.
+ * Types that are formatted the same way in multiple definitions are only formatted once, see SwaggerTypeCache for the rules.
+ * The type cache survives between renders, each render first fingerprints the definitions and starts from an empty cache if any of them changed.
+ */
+public class SwaggerCatalog {
+
+	private static final int MAX_TYPES = 10000;
+
+	private SwaggerFormatter formatter;
+	private SwaggerTypeCache typeCache;
+	private ExecutorService executor;
+	// the fingerprints of the definitions the type cache was filled with
+	private Map<String, String> fingerprints = new HashMap<String, String>();
+
+	/**
+	 * The formatter is only used as a template for the settings, a deadline and cancellation apply to a single render so they are not copied
+	 */
+	public SwaggerCatalog(SwaggerFormatter formatter) {
+		this(formatter, MAX_TYPES);
+	}
+
+	/**
+	 * The max types limits the amount of formatted types (and inline expansions) that are kept between renders
+	 */
+	public SwaggerCatalog(SwaggerFormatter formatter, int maxTypes) {
+		this.typeCache = new SwaggerTypeCache(maxTypes);
+		this.formatter = formatter.copy();
+		this.formatter.setTypeCache(typeCache);
+		this.formatter.setDeadline(null);
+		this.formatter.setCancellation(null);
+	}
+
+	/**
+	 * Formats all the definitions, the result is keyed by definition id
+	 */
+	public Map<String, byte[]> format(Collection<SwaggerDefinition> definitions) throws IOException {
+		return format(definitions, null, null);
+	}
+
+	/**
+	 * Formats all the definitions, stopping with a SwaggerCancelledException if the deadline passes or the render is cancelled (both are optional)
+	 */
+	public Map<String, byte[]> format(Collection<SwaggerDefinition> definitions, final Date deadline, final SwaggerCancellation cancellation) throws IOException {
+		ExecutorService executor = this.executor;
+		// one pool for both the validation and the rendering
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(Math.max(1, Math.min(definitions.size(), Runtime.getRuntime().availableProcessors())));
+		}
+		try {
+			validate(definitions, executor);
+			return render(definitions, deadline, cancellation, executor);
+		}
+		finally {
+			if (this.executor == null) {
+				executor.shutdown();
+			}
+		}
+	}
+
+	private Map<String, byte[]> render(Collection<SwaggerDefinition> definitions, final Date deadline, final SwaggerCancellation cancellation, ExecutorService executor) throws IOException {
+		List<Callable<byte[]>> tasks = new ArrayList<Callable<byte[]>>();
+		for (final SwaggerDefinition definition : definitions) {
+			tasks.add(new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws Exception {
+					ByteArrayOutputStream output = new ByteArrayOutputStream();
+					SwaggerFormatter copy = formatter.copy();
+					copy.setDeadline(deadline);
+					copy.setCancellation(cancellation);
+					copy.format(definition, output);
+					return output.toByteArray();
+				}
+			});
+		}
+		List<byte[]> results = run(tasks, executor);
+		Map<String, byte[]> formatted = new LinkedHashMap<String, byte[]>();
+		int counter = 0;
+		for (SwaggerDefinition definition : definitions) {
+			formatted.put(definition.getId(), results.get(counter++));
+		}
+		return formatted;
+	}
+
+	/**
+	 * An overview of all the definitions in the catalog
+	 */
+	public Map<String, Object> formatIndex(Collection<SwaggerDefinition> definitions) {
+		List<Object> apis = new ArrayList<Object>();
+		for (SwaggerDefinition definition : definitions) {
+			Map<String, Object> api = new LinkedHashMap<String, Object>();
+			api.put("id", definition.getId());
+			if (definition.getInfo() != null && formatter.isIncludeDocumentation()) {
+				api.put("info", new BeanInstance<SwaggerInfo>(definition.getInfo()));
+			}
+			api.put("host", definition.getHost());
+			api.put("basePath", definition.getBasePath());
+			if (definition.getPaths() != null) {
+				Set<String> paths = new LinkedHashSet<String>();
+				int operations = 0;
+				for (SwaggerPath path : definition.getPaths()) {
+					paths.add(path.getPath());
+					if (path.getMethods() != null) {
+						operations += path.getMethods().size();
+					}
+				}
+				api.put("paths", new ArrayList<String>(paths));
+				api.put("operations", operations);
+			}
+			apis.add(api);
+		}
+		Map<String, Object> index = new LinkedHashMap<String, Object>();
+		index.put("apis", apis);
+		return index;
+	}
+
+	public void formatIndex(Collection<SwaggerDefinition> definitions, OutputStream output) throws IOException {
+		formatter.write(formatIndex(definitions), output);
+	}
+
+	public synchronized void clear() {
+		typeCache.clear();
+		fingerprints.clear();
+	}
+
+	// the type cache can not see changes to the types themselves (e.g. after a reload), if a definition changed or we can't tell, we start over
+	private synchronized void validate(Collection<SwaggerDefinition> definitions, ExecutorService executor) throws IOException {
+		List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+		for (final SwaggerDefinition definition : definitions) {
+			tasks.add(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					return formatter.fingerprint(definition);
+				}
+			});
+		}
+		List<String> results = run(tasks, executor);
+		Map<String, String> current = new HashMap<String, String>();
+		boolean valid = true;
+		int counter = 0;
+		for (SwaggerDefinition definition : definitions) {
+			String fingerprint = results.get(counter++);
+			if (fingerprint == null) {
+				valid = false;
+			}
+			current.put(definition.getId(), fingerprint);
+		}
+		// a definition that is no longer rendered may have contributed types we can no longer vouch for
+		for (Map.Entry<String, String> previous : fingerprints.entrySet()) {
+			if (previous.getValue() == null || !previous.getValue().equals(current.get(previous.getKey()))) {
+				valid = false;
+			}
+		}
+		if (!valid) {
+			typeCache.clear();
+		}
+		fingerprints = current;
+	}
+
+	private static <T> List<T> run(List<Callable<T>> tasks, ExecutorService executor) throws IOException {
+		try {
+			List<T> results = new ArrayList<T>();
+			for (Future<T> future : executor.invokeAll(tasks)) {
+				results.add(future.get());
+			}
+			return results;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			else if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * By default a thread pool is started for each render, set an executor to reuse threads
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+}
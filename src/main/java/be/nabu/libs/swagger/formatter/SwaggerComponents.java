@@ -0,0 +1,98 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.swagger.formatter;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects the parameters (or responses) of all operations, identical content that is used more than once is moved to a shared section and replaced with a reference.
+ */
+class SwaggerComponents {
+
+	private String section;
+	private Map<Map<String, Object>, Component> components = new LinkedHashMap<Map<String, Object>, Component>();
+
+	/**
+	 * The section is the name of the top level element, e.g. "parameters"
+	 */
+	public SwaggerComponents(String section) {
+		this.section = section;
+	}
+
+	/**
+	 * Registers content that was added to the container (a list or a map) under the given key (an index or a map key)
+	 */
+	public void add(Object container, Object key, String name, Map<String, Object> content) {
+		Component component = components.get(content);
+		if (component == null) {
+			component = new Component(name, content);
+			components.put(content, component);
+		}
+		component.containers.add(container);
+		component.keys.add(key);
+	}
+
+	/**
+	 * Replaces all the shared content with references and returns the shared section, null if nothing is shared
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<String, Object> resolve() {
+		Map<String, Object> shared = new LinkedHashMap<String, Object>();
+		Set<String> names = new HashSet<String>();
+		for (Component component : components.values()) {
+			if (component.containers.size() < 2) {
+				continue;
+			}
+			String name = component.name.replaceAll("[^\\w.-]+", "_");
+			int counter = 1;
+			while (!names.add(name)) {
+				name = component.name.replaceAll("[^\\w.-]+", "_") + "-" + ++counter;
+			}
+			shared.put(name, component.content);
+			for (int i = 0; i < component.containers.size(); i++) {
+				Map<String, Object> reference = new LinkedHashMap<String, Object>();
+				reference.put("$ref", "#/" + section + "/" + name);
+				Object container = component.containers.get(i);
+				if (container instanceof List) {
+					((List<Object>) container).set((Integer) component.keys.get(i), reference);
+				}
+				else {
+					((Map<Object, Object>) container).put(component.keys.get(i), reference);
+				}
+			}
+		}
+		return shared.isEmpty() ? null : shared;
+	}
+
+	private static class Component {
+		private String name;
+		private Map<String, Object> content;
+		private List<Object> containers = new ArrayList<Object>();
+		private List<Object> keys = new ArrayList<Object>();
+
+		public Component(String name, Map<String, Object> content) {
+			this.name = name;
+			this.content = content;
+		}
+	}
+}
@@ -0,0 +1,352 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.swagger.formatter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import be.nabu.libs.swagger.api.SwaggerDefinition;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * Calculates a JSON patch (RFC 6902) between two document models generated by the formatter (or read from a snapshot).
+ * Every subtree gets a 64 bit structural hash, subtrees with the same hash are considered equal and skipped without being compared.
+ * The formatter can record the hashes of the operations and definitions while it renders (see formatToMap()), those are keyed by their JSON pointer and used instead of walking the subtree.
+ * The hashes of the previous document are remembered until a different previous document is passed in, so comparing against the same one repeatedly only hashes it once.
+ * This does assume the documents are not modified afterwards. Keys with a null value are treated as absent as they do not show up in the rendered document either.
+ */
+public class SwaggerDiff {
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private Map<String, Object> from;
+	private Map<Object, Long> fromHashes = new IdentityHashMap<Object, Long>();
+
+	/**
+	 * Formats the definition and compares it to the previous document, the hashes the formatter records are added to the given map (if not null) so they can be passed in as the recorded hashes of the next diff
+	 */
+	public List<Map<String, Object>> diff(Map<String, Object> from, Map<String, Long> fromRecorded, SwaggerFormatter formatter, SwaggerDefinition definition, Map<String, Long> toRecorded) {
+		if (toRecorded == null) {
+			toRecorded = new HashMap<String, Long>();
+		}
+		return diff(from, fromRecorded, formatter.formatToMap(definition, toRecorded), toRecorded);
+	}
+
+	public List<Map<String, Object>> diff(Map<String, Object> from, SwaggerFormatter formatter, SwaggerDefinition definition) {
+		return diff(from, null, formatter, definition, null);
+	}
+
+	public List<Map<String, Object>> diff(Map<String, Object> from, Map<String, Object> to) {
+		return diff(from, null, to, null);
+	}
+
+	/**
+	 * The recorded hashes are optional, they are keyed by JSON pointer
+	 */
+	public List<Map<String, Object>> diff(Map<String, Object> from, Map<String, Long> fromRecorded, Map<String, Object> to, Map<String, Long> toRecorded) {
+		if (this.from != from) {
+			this.from = from;
+			fromHashes.clear();
+		}
+		// the paths above a recorded hash are walked without hashing them, otherwise we would hash the whole document at the root
+		Set<String> ancestors = new HashSet<String>();
+		addAncestors(fromRecorded, ancestors);
+		addAncestors(toRecorded, ancestors);
+		List<Map<String, Object>> patch = new ArrayList<Map<String, Object>>();
+		// the new document is only hashed for this call, we don't want to hold on to it
+		diff("", from, fromRecorded, to, toRecorded, new IdentityHashMap<Object, Long>(), ancestors, patch);
+		return patch;
+	}
+
+	/**
+	 * Forget the remembered hashes of the previous document
+	 */
+	public void clear() {
+		from = null;
+		fromHashes.clear();
+	}
+
+	private static void addAncestors(Map<String, Long> recorded, Set<String> ancestors) {
+		if (recorded != null) {
+			for (String path : recorded.keySet()) {
+				int index = path.lastIndexOf('/');
+				while (index >= 0 && ancestors.add(path.substring(0, index))) {
+					index = path.lastIndexOf('/', index - 1);
+				}
+			}
+		}
+	}
+
+	private void diff(String path, Object from, Map<String, Long> fromRecorded, Object to, Map<String, Long> toRecorded, Map<Object, Long> toHashes, Set<String> ancestors, List<Map<String, Object>> patch) {
+		if (from == to) {
+			return;
+		}
+		if (!ancestors.contains(path)) {
+			Long fromHash = fromRecorded == null ? null : fromRecorded.get(path);
+			Long toHash = toRecorded == null ? null : toRecorded.get(path);
+			if ((fromHash == null ? hash(from, fromHashes) : fromHash) == (toHash == null ? hash(to, toHashes) : toHash)) {
+				return;
+			}
+		}
+		Object normalizedFrom = normalize(from);
+		Object normalizedTo = normalize(to);
+		if (normalizedFrom instanceof Map && normalizedTo instanceof Map) {
+			Map<?, ?> fromMap = (Map<?, ?>) normalizedFrom;
+			Map<?, ?> toMap = (Map<?, ?>) normalizedTo;
+			for (Map.Entry<?, ?> entry : fromMap.entrySet()) {
+				if (entry.getValue() != null && toMap.get(entry.getKey()) == null) {
+					patch.add(operation("remove", path + "/" + escape(entry.getKey().toString()), null, false));
+				}
+			}
+			for (Map.Entry<?, ?> entry : toMap.entrySet()) {
+				if (entry.getValue() != null) {
+					String childPath = path + "/" + escape(entry.getKey().toString());
+					Object fromValue = fromMap.get(entry.getKey());
+					if (fromValue == null) {
+						patch.add(operation("add", childPath, entry.getValue(), true));
+					}
+					else {
+						diff(childPath, fromValue, fromRecorded, entry.getValue(), toRecorded, toHashes, ancestors, patch);
+					}
+				}
+			}
+		}
+		else if (normalizedFrom instanceof List && normalizedTo instanceof List) {
+			List<?> fromList = (List<?>) normalizedFrom;
+			List<?> toList = (List<?>) normalizedTo;
+			int common = Math.min(fromList.size(), toList.size());
+			for (int i = 0; i < common; i++) {
+				diff(path + "/" + i, fromList.get(i), fromRecorded, toList.get(i), toRecorded, toHashes, ancestors, patch);
+			}
+			for (int i = common; i < toList.size(); i++) {
+				patch.add(operation("add", path + "/" + i, toList.get(i), true));
+			}
+			// remove from the back so the indexes stay valid
+			for (int i = fromList.size() - 1; i >= common; i--) {
+				patch.add(operation("remove", path + "/" + i, null, false));
+			}
+		}
+		else {
+			patch.add(operation("replace", path, to, true));
+		}
+	}
+
+	private static Map<String, Object> operation(String op, String path, Object value, boolean includeValue) {
+		Map<String, Object> operation = new LinkedHashMap<String, Object>();
+		operation.put("op", op);
+		operation.put("path", path);
+		if (includeValue) {
+			operation.put("value", value);
+		}
+		return operation;
+	}
+
+	static String escape(String key) {
+		return key.replace("~", "~0").replace("/", "~1");
+	}
+
+	private static Object normalize(Object value) {
+		if (value instanceof ComplexContent) {
+			return SwaggerSnapshot.toMap((ComplexContent) value);
+		}
+		else if (value instanceof Object[]) {
+			return Arrays.asList((Object[]) value);
+		}
+		else if (value instanceof Collection && !(value instanceof List)) {
+			return new ArrayList<Object>((Collection<?>) value);
+		}
+		return value;
+	}
+
+	/**
+	 * Calculates the structural hash of a part of a document, the hashes of composite values are remembered in the given map (if not null)
+	 */
+	static long hash(Object value, Map<Object, Long> hashes) {
+		if (value == null) {
+			return 0;
+		}
+		boolean composite = hashes != null && (value instanceof Map || value instanceof Collection || value instanceof Object[] || value instanceof ComplexContent);
+		if (composite) {
+			Long cached = hashes.get(value);
+			if (cached != null) {
+				return cached;
+			}
+		}
+		Object normalized = normalize(value);
+		long hash;
+		if (normalized instanceof Map) {
+			hash = mix(FNV_OFFSET, 'm');
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) normalized).entrySet()) {
+				if (entry.getValue() != null) {
+					hash = mix(hash, hash(entry.getKey().toString(), hashes));
+					hash = mix(hash, hash(entry.getValue(), hashes));
+				}
+			}
+		}
+		else if (normalized instanceof Collection) {
+			hash = mix(FNV_OFFSET, 'l');
+			for (Object child : (Collection<?>) normalized) {
+				hash = mix(hash, hash(child, hashes));
+			}
+		}
+		else if (normalized instanceof Boolean) {
+			hash = (Boolean) normalized ? 1 : 2;
+		}
+		// the same number may be a different class depending on where the document came from (e.g. float vs double)
+		else if (normalized instanceof Integer || normalized instanceof Long || normalized instanceof Short || normalized instanceof Byte) {
+			hash = mix(mix(FNV_OFFSET, 'i'), ((Number) normalized).longValue());
+		}
+		else if (normalized instanceof Float || normalized instanceof Double) {
+			hash = mix(mix(FNV_OFFSET, 'd'), Double.doubleToLongBits(((Number) normalized).doubleValue()));
+		}
+		else if (normalized instanceof BigInteger || normalized instanceof BigDecimal) {
+			hash = mix(mix(FNV_OFFSET, 'b'), hashString(normalized.toString()));
+		}
+		else {
+			hash = mix(mix(FNV_OFFSET, 's'), hashString(normalized.toString()));
+		}
+		if (composite) {
+			hashes.put(value, hash);
+		}
+		return hash;
+	}
+
+	private static long hashString(String value) {
+		long hash = FNV_OFFSET;
+		for (int i = 0; i < value.length(); i++) {
+			hash ^= value.charAt(i);
+			hash *= FNV_PRIME;
+		}
+		return hash;
+	}
+
+	private static long mix(long hash, long value) {
+		hash ^= value;
+		hash *= FNV_PRIME;
+		// spread the bits so the order of the values matters
+		hash ^= hash >>> 29;
+		return hash;
+	}
+
+	/**
+	 * Writes the patch as JSON
+	 */
+	public static void write(List<Map<String, Object>> patch, OutputStream output) throws IOException {
+		Writer writer = new OutputStreamWriter(output, Charset.forName("UTF-8"));
+		writer.write("[");
+		boolean first = true;
+		for (Map<String, Object> operation : patch) {
+			if (!first) {
+				writer.write(",");
+			}
+			first = false;
+			writer.write("{\"op\":");
+			writeString(operation.get("op").toString(), writer);
+			writer.write(",\"path\":");
+			writeString(operation.get("path").toString(), writer);
+			// the value may be explicitly null
+			if (operation.containsKey("value")) {
+				writer.write(",\"value\":");
+				writeValue(operation.get("value"), writer);
+			}
+			writer.write("}");
+		}
+		writer.write("]");
+		writer.flush();
+	}
+
+	private static void writeValue(Object value, Writer writer) throws IOException {
+		Object normalized = normalize(value);
+		if (normalized == null) {
+			writer.write("null");
+		}
+		else if (normalized instanceof Map) {
+			writer.write("{");
+			boolean first = true;
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) normalized).entrySet()) {
+				if (entry.getValue() == null) {
+					continue;
+				}
+				if (!first) {
+					writer.write(",");
+				}
+				first = false;
+				writeString(entry.getKey().toString(), writer);
+				writer.write(":");
+				writeValue(entry.getValue(), writer);
+			}
+			writer.write("}");
+		}
+		else if (normalized instanceof Collection) {
+			writer.write("[");
+			boolean first = true;
+			for (Object child : (Collection<?>) normalized) {
+				if (!first) {
+					writer.write(",");
+				}
+				first = false;
+				writeValue(child, writer);
+			}
+			writer.write("]");
+		}
+		else if (normalized instanceof Boolean || normalized instanceof Number) {
+			writer.write(normalized.toString());
+		}
+		else {
+			writeString(normalized.toString(), writer);
+		}
+	}
+
+	private static void writeString(String value, Writer writer) throws IOException {
+		writer.write('"');
+		for (int i = 0; i < value.length(); i++) {
+			char character = value.charAt(i);
+			switch (character) {
+				case '"': writer.write("\\\""); break;
+				case '\\': writer.write("\\\\"); break;
+				case '\n': writer.write("\\n"); break;
+				case '\r': writer.write("\\r"); break;
+				case '\t': writer.write("\\t"); break;
+				default:
+					if (character < 0x20) {
+						writer.write(String.format("\\u%04x", (int) character));
+					}
+					else {
+						writer.write(character);
+					}
+			}
+		}
+		writer.write('"');
+	}
+}
@@ -0,0 +1,255 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.swagger.formatter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Stores rendered documents in a local directory so they can be shared by all the processes on the same host.
+ * Files are written to a temporary file first and then moved in place, so a reader never sees a partial document.
+ * Because a key always maps to the same content, files are never modified once they exist and can be safely memory mapped.
+ * Only the most recently used mappings are kept, older ones are released to the garbage collector (views that were handed out remain valid).
+ * If a maximum size is set, the oldest documents are removed once the directory exceeds it, callers can also remove superseded keys themselves.
+ */
+public class SwaggerFileCache implements SwaggerCache {
+
+	private static final Pattern SAFE_KEY = Pattern.compile("^[a-zA-Z0-9_-]{1,128}$");
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+	// temporary files older than this are left behind by a crashed process
+	private static final long TEMPORARY_MAX_AGE = 60 * 60 * 1000;
+
+	private Path directory;
+	private long maxSize;
+	private int maxMapped;
+	private Map<String, MappedByteBuffer> mapped;
+
+	public SwaggerFileCache(Path directory) throws IOException {
+		this(directory, 0, 32);
+	}
+
+	/**
+	 * A max size of 0 means there is no limit on the directory
+	 */
+	public SwaggerFileCache(Path directory, long maxSize, final int maxMapped) throws IOException {
+		this.directory = directory;
+		this.maxSize = maxSize;
+		this.maxMapped = maxMapped;
+		this.mapped = new LinkedHashMap<String, MappedByteBuffer>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, MappedByteBuffer> eldest) {
+				return size() > maxMapped;
+			}
+		};
+		Files.createDirectories(directory);
+	}
+
+	@Override
+	public ByteBuffer get(String key) throws IOException {
+		String name = toFileName(key);
+		MappedByteBuffer buffer;
+		synchronized(mapped) {
+			buffer = mapped.get(name);
+		}
+		if (buffer == null) {
+			try (FileChannel channel = FileChannel.open(directory.resolve(name), StandardOpenOption.READ)) {
+				buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+			}
+			catch (NoSuchFileException e) {
+				return null;
+			}
+			synchronized(mapped) {
+				mapped.put(name, buffer);
+			}
+		}
+		return buffer.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Transfers the cached content to the target channel, if the target is a socket this does not pass through the heap
+	 */
+	@Override
+	public boolean write(String key, WritableByteChannel target) throws IOException {
+		try (FileChannel channel = FileChannel.open(directory.resolve(toFileName(key)), StandardOpenOption.READ)) {
+			long size = channel.size();
+			long position = 0;
+			while (position < size) {
+				position += channel.transferTo(position, size - position, target);
+			}
+			return true;
+		}
+		catch (NoSuchFileException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public boolean write(String key, OutputStream output) throws IOException {
+		return write(key, Channels.newChannel(output));
+	}
+
+	@Override
+	public void put(String key, byte[] content) throws IOException {
+		String name = toFileName(key);
+		Path target = directory.resolve(name);
+		Path temporary = Files.createTempFile(directory, name, TEMPORARY_SUFFIX);
+		try {
+			try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+				ByteBuffer buffer = ByteBuffer.wrap(content);
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				// make sure the content is on disk before the rename, otherwise a crash can leave an empty file under the final name
+				channel.force(true);
+			}
+			try {
+				Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally {
+			Files.deleteIfExists(temporary);
+		}
+		if (maxSize > 0) {
+			cleanup();
+		}
+	}
+
+	@Override
+	public void remove(String key) throws IOException {
+		String name = toFileName(key);
+		synchronized(mapped) {
+			mapped.remove(name);
+		}
+		Files.deleteIfExists(directory.resolve(name));
+	}
+
+	/**
+	 * Removes the oldest documents until the directory is within the max size, as well as temporary files left behind by crashed writers
+	 */
+	public void cleanup() throws IOException {
+		List<Path> documents = new ArrayList<Path>();
+		final Map<Path, Long> modified = new HashMap<Path, Long>();
+		long total = 0;
+		long now = System.currentTimeMillis();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+			for (Path file : stream) {
+				try {
+					long lastModified = Files.getLastModifiedTime(file).toMillis();
+					if (file.getFileName().toString().endsWith(TEMPORARY_SUFFIX)) {
+						if (now - lastModified > TEMPORARY_MAX_AGE) {
+							Files.deleteIfExists(file);
+						}
+					}
+					else if (Files.isRegularFile(file)) {
+						documents.add(file);
+						modified.put(file, lastModified);
+						total += Files.size(file);
+					}
+				}
+				// removed by another process in the meantime
+				catch (NoSuchFileException e) {
+					continue;
+				}
+			}
+		}
+		if (maxSize <= 0 || total <= maxSize) {
+			return;
+		}
+		Collections.sort(documents, new Comparator<Path>() {
+			@Override
+			public int compare(Path o1, Path o2) {
+				return modified.get(o1).compareTo(modified.get(o2));
+			}
+		});
+		for (Path document : documents) {
+			if (total <= maxSize) {
+				break;
+			}
+			try {
+				long size = Files.size(document);
+				Files.deleteIfExists(document);
+				total -= size;
+			}
+			catch (NoSuchFileException e) {
+				continue;
+			}
+			synchronized(mapped) {
+				mapped.remove(document.getFileName().toString());
+			}
+		}
+	}
+
+	// fingerprints can be used as is, anything else is hashed to make sure we have a valid file name
+	private static String toFileName(String key) {
+		if (SAFE_KEY.matcher(key).matches()) {
+			return key;
+		}
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(Charset.forName("UTF-8")));
+			StringBuilder builder = new StringBuilder();
+			for (byte single : digest) {
+				builder.append(String.format("%02x", single & 0xff));
+			}
+			return builder.toString();
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	public int getMaxMapped() {
+		return maxMapped;
+	}
+
+}
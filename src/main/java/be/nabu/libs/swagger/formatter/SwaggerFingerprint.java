@@ -0,0 +1,356 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.swagger.formatter;
+
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import be.nabu.libs.property.api.Value;
+import be.nabu.libs.swagger.api.SwaggerDefinition;
+import be.nabu.libs.swagger.api.SwaggerDocumentation;
+import be.nabu.libs.swagger.api.SwaggerInfo;
+import be.nabu.libs.swagger.api.SwaggerMethod;
+import be.nabu.libs.swagger.api.SwaggerParameter;
+import be.nabu.libs.swagger.api.SwaggerPath;
+import be.nabu.libs.swagger.api.SwaggerResponse;
+import be.nabu.libs.swagger.api.SwaggerSecurityDefinition;
+import be.nabu.libs.swagger.api.SwaggerSecuritySetting;
+import be.nabu.libs.swagger.api.SwaggerTag;
+import be.nabu.libs.types.api.ComplexContent;
+import be.nabu.libs.types.api.ComplexType;
+import be.nabu.libs.types.api.DefinedType;
+import be.nabu.libs.types.api.Element;
+import be.nabu.libs.types.api.SimpleType;
+import be.nabu.libs.types.api.Type;
+import be.nabu.libs.types.java.BeanInstance;
+
+/**
+ * Digests everything the formatter looks at in a definition without actually formatting it.
+ * Types are followed through their supertypes and children, each type is only visited once so recursive structures are no problem.
+ */
+public class SwaggerFingerprint {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private MessageDigest digest;
+	private boolean stable = true;
+	private Set<Type> visited = Collections.newSetFromMap(new IdentityHashMap<Type, Boolean>());
+
+	public SwaggerFingerprint() {
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Adds a value based on its content, maps, collections, arrays and complex content are walked.
+	 * Values that have no content based representation (e.g. an object that does not override toString()) make the fingerprint unstable.
+	 */
+	public void add(Object value) {
+		if (value == null) {
+			digest.update((byte) 0);
+		}
+		else if (value instanceof String || value instanceof Character) {
+			addText((byte) 1, value.toString());
+		}
+		else if (value instanceof Boolean || value instanceof Number || value instanceof Enum || value instanceof URI || value instanceof UUID) {
+			addText((byte) 2, value.getClass().getName() + ":" + value);
+		}
+		else if (value instanceof Date) {
+			addText((byte) 3, Long.toString(((Date) value).getTime()));
+		}
+		else if (value instanceof Class) {
+			addText((byte) 4, ((Class<?>) value).getName());
+		}
+		else if (value instanceof Type) {
+			digest.update((byte) 5);
+			add((Type) value);
+		}
+		else if (value instanceof Element) {
+			digest.update((byte) 6);
+			add((Element<?>) value);
+		}
+		else if (value instanceof ComplexContent) {
+			digest.update((byte) 7);
+			add(SwaggerSnapshot.toMap((ComplexContent) value));
+		}
+		else if (value instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>) value;
+			// the iteration order of a hash based map is not something we can rely on
+			if (!(map instanceof LinkedHashMap) && !(map instanceof SortedMap)) {
+				TreeMap<String, Object> sorted = new TreeMap<String, Object>();
+				for (Map.Entry<?, ?> entry : map.entrySet()) {
+					sorted.put(String.valueOf(entry.getKey()), entry.getValue());
+				}
+				map = sorted;
+			}
+			addText((byte) 8, Integer.toString(map.size()));
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				add(entry.getKey());
+				add(entry.getValue());
+			}
+		}
+		else if (value instanceof Collection) {
+			addText((byte) 9, Integer.toString(((Collection<?>) value).size()));
+			for (Object single : (Collection<?>) value) {
+				add(single);
+			}
+		}
+		else if (value instanceof Object[]) {
+			add(Arrays.asList((Object[]) value));
+		}
+		else if (value.getClass().isArray()) {
+			addText((byte) 10, value.getClass().getName() + ":" + arrayToString(value));
+		}
+		else {
+			stable = false;
+			addText((byte) 11, value.getClass().getName());
+		}
+	}
+
+	private void addText(byte tag, String text) {
+		byte[] bytes = text.getBytes(UTF8);
+		digest.update(tag);
+		digest.update((byte) (bytes.length >>> 24));
+		digest.update((byte) (bytes.length >>> 16));
+		digest.update((byte) (bytes.length >>> 8));
+		digest.update((byte) bytes.length);
+		digest.update(bytes);
+	}
+
+	private static String arrayToString(Object array) {
+		if (array instanceof byte[]) {
+			return Arrays.toString((byte[]) array);
+		}
+		else if (array instanceof char[]) {
+			return Arrays.toString((char[]) array);
+		}
+		else if (array instanceof int[]) {
+			return Arrays.toString((int[]) array);
+		}
+		else if (array instanceof long[]) {
+			return Arrays.toString((long[]) array);
+		}
+		else if (array instanceof double[]) {
+			return Arrays.toString((double[]) array);
+		}
+		else if (array instanceof float[]) {
+			return Arrays.toString((float[]) array);
+		}
+		else if (array instanceof short[]) {
+			return Arrays.toString((short[]) array);
+		}
+		return Arrays.toString((boolean[]) array);
+	}
+
+	/**
+	 * Whether all the values could be digested based on their content, if not the fingerprint can not be used to detect changes
+	 */
+	public boolean isStable() {
+		return stable;
+	}
+
+	public void add(SwaggerDefinition definition) {
+		add(definition.getId());
+		add(definition.getVersion());
+		add(definition.getHost());
+		add(definition.getBasePath());
+		add(definition.getSchemes());
+		add(definition.getConsumes());
+		add(definition.getProduces());
+		if (definition.getInfo() != null) {
+			add(SwaggerSnapshot.toMap(new BeanInstance<SwaggerInfo>(definition.getInfo())));
+		}
+		if (definition.getTags() != null) {
+			for (SwaggerTag tag : definition.getTags()) {
+				add(tag.getName());
+				add(tag.getDescription());
+			}
+		}
+		if (definition.getPaths() != null) {
+			for (SwaggerPath path : definition.getPaths()) {
+				add(path.getPath());
+				if (path.getMethods() != null) {
+					for (SwaggerMethod method : path.getMethods()) {
+						add(method);
+					}
+				}
+			}
+		}
+		if (definition.getRegistry() != null) {
+			for (ComplexType complexType : definition.getRegistry().getComplexTypes(definition.getId())) {
+				add(complexType);
+			}
+			for (SimpleType<?> simpleType : definition.getRegistry().getSimpleTypes(definition.getId())) {
+				add(simpleType);
+			}
+		}
+		add(definition.getGlobalSecurity());
+		if (definition.getSecurityDefinitions() != null) {
+			for (SwaggerSecurityDefinition securityDefinition : definition.getSecurityDefinitions()) {
+				add(securityDefinition.getName());
+				add(securityDefinition.getType());
+				add(securityDefinition.getDescription());
+				add(securityDefinition.getFieldName());
+				add(securityDefinition.getLocation());
+				add(securityDefinition.getFlow());
+				add(securityDefinition.getTokenUrl());
+				add(securityDefinition.getAuthorizationUrl());
+				add(securityDefinition.getScopes());
+			}
+		}
+	}
+
+	private void add(SwaggerMethod method) {
+		add(method.getMethod());
+		add(method.getSummary());
+		add(method.getDescription());
+		add(method.getOperationId());
+		add(method.getConsumes());
+		add(method.getProduces());
+		add(method.getDeprecated());
+		add(method.getTags());
+		add(method.getSchemes());
+		if (method.getDocumentation() != null) {
+			add(SwaggerSnapshot.toMap(new BeanInstance<SwaggerDocumentation>(method.getDocumentation())));
+		}
+		add(method.getParameters());
+		if (method.getResponses() != null) {
+			for (SwaggerResponse response : method.getResponses()) {
+				add(response.getCode());
+				add(response.getDescription());
+				add(response.getHeaders());
+				add(response.getElement());
+			}
+		}
+		add(method.getSecurity());
+		add(method.getExtensions());
+	}
+
+	private void add(List<?> list) {
+		if (list == null) {
+			add((Object) null);
+		}
+		else {
+			add(list.size());
+			for (Object single : list) {
+				if (single instanceof SwaggerParameter) {
+					add((SwaggerParameter) single);
+				}
+				else if (single instanceof SwaggerSecuritySetting) {
+					add(((SwaggerSecuritySetting) single).getName());
+					add(((SwaggerSecuritySetting) single).getScopes());
+				}
+				else {
+					add(single);
+				}
+			}
+		}
+	}
+
+	private void add(SwaggerParameter parameter) {
+		add(parameter.getName());
+		add(parameter.getLocation());
+		add(parameter.getAllowEmptyValue());
+		add(parameter.getDefaultValue());
+		add(parameter.getUnique());
+		add(parameter.getMultipleOf());
+		add(parameter.getCollectionFormat());
+		add(parameter.getElement());
+	}
+
+	private void add(Element<?> element) {
+		if (element == null) {
+			add((Object) null);
+		}
+		else {
+			add(element.getName());
+			addProperties(element.getProperties());
+			add(element.getType());
+		}
+	}
+
+	private void addProperties(Value<?>...values) {
+		if (values != null) {
+			for (Value<?> value : values) {
+				add(value.getProperty().getName());
+				add(value.getValue());
+			}
+		}
+	}
+
+	private void add(Type type) {
+		if (type == null) {
+			add((Object) null);
+		}
+		// we only need to know it is the same type, its content is already in the digest
+		else if (!visited.add(type)) {
+			add(type instanceof DefinedType ? ((DefinedType) type).getId() : type.getName());
+		}
+		else {
+			add(type.getNamespace());
+			add(type.getName());
+			if (type instanceof DefinedType) {
+				add(((DefinedType) type).getId());
+			}
+			if (type instanceof SimpleType) {
+				add(((SimpleType<?>) type).getInstanceClass().getName());
+			}
+			addProperties(type.getProperties());
+			add(type.getSuperType());
+			if (type instanceof ComplexType) {
+				for (Element<?> child : (ComplexType) type) {
+					add(child);
+				}
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		byte[] bytes;
+		try {
+			bytes = ((MessageDigest) digest.clone()).digest();
+		}
+		catch (CloneNotSupportedException e) {
+			bytes = digest.digest();
+		}
+		StringBuilder builder = new StringBuilder();
+		for (byte single : bytes) {
+			builder.append(String.format("%02x", single & 0xff));
+		}
+		return builder.toString();
+	}
+}
@@ -25,12 +25,18 @@ import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.net.URI;
 import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import org.slf4j.Logger;
@@ -88,10 +94,24 @@ public class SwaggerFormatter {
 	
 	private boolean expandInline;
 	private boolean allowDefinedTypeReferences;
-	private List<DefinedType> referencedTypes;
+	// the types that still have to be added to the definitions, each type is only queued once
+	private Deque<DefinedType> referencedTypes;
+	private Set<DefinedType> discoveredTypes;
+	// the types referenced by the fragment that is being cached, the set keeps the ordered list free of duplicates
+	private List<DefinedType> capturedTypes;
+	private Set<DefinedType> capturedSet;
 	private boolean allowCustomFormats = true;
 	private Logger logger = LoggerFactory.getLogger(getClass());
 	private boolean includeDocumentation = true;
+	private boolean shareComponents;
+	private SwaggerTypeCache typeCache;
+	private Set<String> consultedNamespaces;
+	private Date deadline;
+	private SwaggerCancellation cancellation;
+	private SwaggerProgressListener progressListener;
+	private int formattedTypes;
+	// the hashes of formatted content that are already known, only tracked when hashes are recorded
+	private Map<Object, Long> knownHashes;
 	
 //	public static void main(String...args) throws IOException {
 //		URL url = new URL("https://raw.githubusercontent.com/OAI/OpenAPI-Specification/master/examples/v2.0/json/petstore.json");
@@ -108,8 +128,80 @@ public class SwaggerFormatter {
 //		}
 //	}
 	
-	@SuppressWarnings({ "incomplete-switch", "unchecked" })
 	public void format(SwaggerDefinition definition, OutputStream output) throws IOException {
+		write(formatToMap(definition), output);
+	}
+
+	/**
+	 * Serves the document from the cache if the definition was already rendered with the same settings, otherwise it is rendered and cached
+	 */
+	public void format(SwaggerDefinition definition, OutputStream output, SwaggerCache cache) throws IOException {
+		String key = fingerprint(definition);
+		if (key == null) {
+			format(definition, output);
+		}
+		else if (!cache.write(key, output)) {
+			ByteArrayOutputStream rendered = new ByteArrayOutputStream();
+			format(definition, rendered);
+			byte[] bytes = rendered.toByteArray();
+			// the document is rendered, failing to cache it should not fail the request
+			try {
+				cache.put(key, bytes);
+			}
+			catch (Exception e) {
+				logger.warn("Could not cache the formatted definition: " + definition.getId(), e);
+			}
+			output.write(bytes);
+		}
+	}
+
+	/**
+	 * Builds the document model without marshalling it, this can be written with write() or stored as a snapshot
+	 */
+	public Map<String, Object> formatToMap(SwaggerDefinition definition) {
+		return formatToMap(definition, null);
+	}
+
+	/**
+	 * Records the structural hash of each operation, definition and shared component in the given map, keyed by JSON pointer (e.g. "/definitions/myType").
+	 * These can be passed to SwaggerDiff so it does not have to walk the documents to find what changed.
+	 */
+	public Map<String, Object> formatToMap(SwaggerDefinition definition, Map<String, Long> hashes) {
+		knownHashes = hashes == null ? null : new IdentityHashMap<Object, Long>();
+		try {
+			Map<String, Object> map = formatDocument(definition);
+			if (hashes != null) {
+				recordHashes(map, hashes);
+			}
+			return map;
+		}
+		finally {
+			knownHashes = null;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void recordHashes(Map<String, Object> map, Map<String, Long> hashes) {
+		Map<String, Object> paths = (Map<String, Object>) map.get("paths");
+		if (paths != null) {
+			for (Map.Entry<String, Object> path : paths.entrySet()) {
+				for (Map.Entry<String, Object> method : ((Map<String, Object>) path.getValue()).entrySet()) {
+					hashes.put("/paths/" + SwaggerDiff.escape(path.getKey()) + "/" + SwaggerDiff.escape(method.getKey()), SwaggerDiff.hash(method.getValue(), knownHashes));
+				}
+			}
+		}
+		for (String section : new String[] { "definitions", "parameters", "responses" }) {
+			Map<String, Object> content = (Map<String, Object>) map.get(section);
+			if (content != null) {
+				for (Map.Entry<String, Object> entry : content.entrySet()) {
+					hashes.put("/" + section + "/" + SwaggerDiff.escape(entry.getKey()), SwaggerDiff.hash(entry.getValue(), knownHashes));
+				}
+			}
+		}
+	}
+
+	@SuppressWarnings({ "incomplete-switch", "unchecked" })
+	private Map<String, Object> formatDocument(SwaggerDefinition definition) {
 		Map<String, Object> map = new LinkedHashMap<String, Object>();
 		map.put("swagger", definition.getVersion());
 		if (definition.getInfo() != null && includeDocumentation) {
@@ -135,8 +227,24 @@ public class SwaggerFormatter {
 			}
 		}
 		
-		referencedTypes = new ArrayList<DefinedType>();
+		referencedTypes = new ArrayDeque<DefinedType>();
+		discoveredTypes = Collections.newSetFromMap(new IdentityHashMap<DefinedType, Boolean>());
+		SwaggerComponents sharedParameters = shareComponents ? new SwaggerComponents("parameters") : null;
+		SwaggerComponents sharedResponses = shareComponents ? new SwaggerComponents("responses") : null;
+		// the same parameter instance is often reused across operations, no need to format it again
+		Map<SwaggerParameter, Map<String, Object>> formattedParameters = shareComponents ? new IdentityHashMap<SwaggerParameter, Map<String, Object>>() : null;
+		Map<SwaggerParameter, Map<String, Object>> formattedHeaders = shareComponents ? new IdentityHashMap<SwaggerParameter, Map<String, Object>>() : null;
+		formattedTypes = 0;
 		if (definition.getPaths() != null) {
+			int totalOperations = 0;
+			int formattedOperations = 0;
+			if (progressListener != null) {
+				for (SwaggerPath path : definition.getPaths()) {
+					if (path.getMethods() != null) {
+						totalOperations += path.getMethods().size();
+					}
+				}
+			}
 			Map<String, Object> pathMap = new LinkedHashMap<String, Object>();
 			for (SwaggerPath path : definition.getPaths()) {
 				// if you have multiple path objects linking to the same actual path on the web application, merge them 
@@ -147,6 +255,7 @@ public class SwaggerFormatter {
 				try {
 					if (path.getMethods() != null) {
 						for (SwaggerMethod swaggerMethod : path.getMethods()) {
+							checkpoint();
 							Map<String, Object> method = new LinkedHashMap<String, Object>();
 							if (includeDocumentation) {
 								method.put("summary", swaggerMethod.getSummary());
@@ -164,7 +273,18 @@ public class SwaggerFormatter {
 							if (swaggerMethod.getParameters() != null) {
 								List<Object> parameters = new ArrayList<Object>();
 								for (SwaggerParameter parameter : swaggerMethod.getParameters()) {
-									parameters.add(formatParameter(definition, parameter));
+									if (shareComponents) {
+										Map<String, Object> formatted = formattedParameters.get(parameter);
+										if (formatted == null) {
+											formatted = formatParameter(definition, parameter);
+											formattedParameters.put(parameter, formatted);
+										}
+										sharedParameters.add(parameters, parameters.size(), parameter.getName(), formatted);
+										parameters.add(formatted);
+									}
+									else {
+										parameters.add(formatParameter(definition, parameter));
+									}
 								}
 								method.put("parameters", parameters);
 							}
@@ -181,10 +301,16 @@ public class SwaggerFormatter {
 									if (response.getHeaders() != null) {
 										Map<String, Object> headerContent = new LinkedHashMap<String, Object>();
 										for (SwaggerParameter header : response.getHeaders()) {
-											Map<String, Object> formatParameter = formatParameter(definition, header);
-											formatParameter.remove("name");
-											// should not put the "required" attribute in headers (at least in response), this is not allowed according to the spec
-											formatParameter.remove("required");
+											Map<String, Object> formatParameter = formattedHeaders == null ? null : formattedHeaders.get(header);
+											if (formatParameter == null) {
+												formatParameter = formatParameter(definition, header);
+												formatParameter.remove("name");
+												// should not put the "required" attribute in headers (at least in response), this is not allowed according to the spec
+												formatParameter.remove("required");
+												if (formattedHeaders != null) {
+													formattedHeaders.put(header, formatParameter);
+												}
+											}
 											headerContent.put(header.getName(), formatParameter);
 										}
 										responseContent.put("headers", headerContent);
@@ -193,6 +319,9 @@ public class SwaggerFormatter {
 										responseContent.put("schema", formatResponseSchema(definition, response));
 									}
 									allResponses.put(code, responseContent);
+									if (shareComponents) {
+										sharedResponses.add(allResponses, code, code, responseContent);
+									}
 								}
 								method.put("responses", allResponses);
 							}
@@ -217,9 +346,15 @@ public class SwaggerFormatter {
 							}
 							
 							methods.put(swaggerMethod.getMethod(), method);
+							if (progressListener != null) {
+								progressListener.operationFormatted(definition.getId(), ++formattedOperations, totalOperations);
+							}
 						}
 					}
 				}
+				catch (SwaggerCancelledException e) {
+					throw e;
+				}
 				catch (Exception e) {
 					logger.error("Could not format operation: " + path.getPath(), e);
 					throw new RuntimeException(e);
@@ -232,9 +367,12 @@ public class SwaggerFormatter {
 			Map<String, Object> elements = new LinkedHashMap<String, Object>();
 			for (ComplexType complexType : definition.getRegistry().getComplexTypes(definition.getId())) {
 				try {
-					Map<String, Object> elementMap = formatDefinedType(definition, complexType, true);
+					Map<String, Object> elementMap = formatDefinition(definition, complexType);
 					elements.put(complexType.getName(), elementMap);
 				}
+				catch (SwaggerCancelledException e) {
+					throw e;
+				}
 				catch (Exception e) {
 					logger.error("Could not format complex type: " + complexType.getName(), e);
 					throw new RuntimeException(e);
@@ -242,9 +380,12 @@ public class SwaggerFormatter {
 			}
 			for (SimpleType<?> simpleType : definition.getRegistry().getSimpleTypes(definition.getId())) {
 				try {
-					Map<String, Object> elementMap = formatDefinedType(definition, simpleType, true);
+					Map<String, Object> elementMap = formatDefinition(definition, simpleType);
 					elements.put(simpleType.getName(), elementMap);
 				}
+				catch (SwaggerCancelledException e) {
+					throw e;
+				}
 				catch (Exception e) {
 					logger.error("Could not format simple type: " + simpleType.getName(), e);
 					throw new RuntimeException(e);
@@ -264,20 +405,32 @@ public class SwaggerFormatter {
 				map.put("security", securities);
 			}
 		}
+		
+		if (shareComponents) {
+			Map<String, Object> parameters = sharedParameters.resolve();
+			if (parameters != null) {
+				map.put("parameters", parameters);
+			}
+			Map<String, Object> responses = sharedResponses.resolve();
+			if (responses != null) {
+				map.put("responses", responses);
+			}
+		}
 
-		// this is a recursive operation as writing out the types can introduce new dependencies to other types
-		while (!referencedTypes.isEmpty()) {
-			List<DefinedType> currentBatch = new ArrayList<DefinedType>(referencedTypes);
-			referencedTypes.clear();
+		// writing out the types can introduce new dependencies to other types, those are queued and picked up in the same pass
+		// the definitions are collected in the map rather than streamed as they are discovered: the document is marshalled as a whole by the JSON binding (which also handles the bean instances)
+		// and the recorded hashes, the shared components and the views all need the complete model
+		if (!referencedTypes.isEmpty()) {
 			Map<String, Object> definitions = (Map<String, Object>) map.get("definitions");
 			if (definitions == null) {
 				definitions = new LinkedHashMap<String, Object>();
 				map.put("definitions", definitions);
 			}
-			for (DefinedType referencedType : currentBatch) {
+			while (!referencedTypes.isEmpty()) {
+				DefinedType referencedType = referencedTypes.poll();
 				// it is not defined yet
 				if (!definitions.containsKey(referencedType.getId())) {
-					definitions.put(referencedType.getId(), formatDefinedType(definition, referencedType, true));
+					definitions.put(referencedType.getId(), formatDefinition(definition, referencedType));
 				}
 			}
 		}
@@ -310,13 +463,35 @@ public class SwaggerFormatter {
 			}
 			map.put("securityDefinitions", security);
 		}
-		
+		return map;
+	}
+	
+	public void write(Map<String, Object> map, OutputStream output) throws IOException {
 		ModifiableComplexType content = MapContentWrapper.buildFromContent(map);
 		JSONBinding binding = new JSONBinding(content);
 		binding.setPrettyPrint(true);
 		binding.setAllowRaw(true);
 		binding.marshal(output, new MapContent(content, map));
 	}
+	
+	/**
+	 * A fingerprint of the definition combined with the settings of this formatter, if the fingerprint has not changed, neither has the formatted output
+	 * Returns null if the definition contains values that can not be digested based on their content, such a definition can not be cached
+	 */
+	public String fingerprint(SwaggerDefinition definition) {
+		SwaggerFingerprint fingerprint = new SwaggerFingerprint();
+		fingerprint.add(expandInline);
+		fingerprint.add(allowDefinedTypeReferences);
+		fingerprint.add(allowCustomFormats);
+		fingerprint.add(includeDocumentation);
+		fingerprint.add(shareComponents);
+		fingerprint.add(definition);
+		if (!fingerprint.isStable()) {
+			logger.warn("The definition '" + definition.getId() + "' contains values that can not be fingerprinted, it will not be cached");
+			return null;
+		}
+		return fingerprint.toString();
+	}
 
 	private Map<String, Object> formatResponseSchema(SwaggerDefinition definition, SwaggerResponse response) {
 		Map<String, Object> schema = new LinkedHashMap<String, Object>();
@@ -435,7 +610,123 @@ public class SwaggerFormatter {
 		return new String(output.toByteArray(), Charset.forName("UTF-8"));
 	}
 	
+	/**
+	 * Formats a root type for the definitions section, if a type cache is set the result is shared with other definitions where possible
+	 */
+	private Map<String, Object> formatDefinition(SwaggerDefinition definition, Type type) {
+		checkpoint();
+		Map<String, Object> content = formatDefinitionContent(definition, type);
+		if (progressListener != null) {
+			progressListener.typeFormatted(definition.getId(), ++formattedTypes, referencedTypes.size());
+		}
+		return content;
+	}
+	
+	private Map<String, Object> formatDefinitionContent(SwaggerDefinition definition, Type type) {
+		return formatCached(definition, type, SwaggerTypeCache.Fragment.DEFINITION);
+	}
+	
+	/**
+	 * Formats the children of a complex type, the result can contain "required", "properties" and "additionalProperties"
+	 * Inline expansions go through here as well so they are shared with other definitions if a type cache is set
+	 */
+	private Map<String, Object> formatChildren(SwaggerDefinition definition, ComplexType type, boolean allChildren) {
+		return formatCached(definition, type, allChildren ? SwaggerTypeCache.Fragment.ALL_CHILDREN : SwaggerTypeCache.Fragment.CHILDREN);
+	}
+	
+	private Map<String, Object> formatUncached(SwaggerDefinition definition, Type type, SwaggerTypeCache.Fragment fragment) {
+		switch(fragment) {
+			case DEFINITION:
+				return formatDefinedType(definition, type, true);
+			case CHILDREN:
+				return formatChildrenContent(definition, (ComplexType) type, false);
+			default:
+				return formatChildrenContent(definition, (ComplexType) type, true);
+		}
+	}
+	
+	private Map<String, Object> formatCached(SwaggerDefinition definition, Type type, SwaggerTypeCache.Fragment fragment) {
+		if (typeCache == null || definition == null) {
+			return formatUncached(definition, type, fragment);
+		}
+		SwaggerTypeCache.Entry entry = typeCache.get(type, fragment, definition.getId());
+		if (entry == null) {
+			Set<String> previousNamespaces = consultedNamespaces;
+			List<DefinedType> previousTypes = capturedTypes;
+			Set<DefinedType> previousSet = capturedSet;
+			consultedNamespaces = new HashSet<String>();
+			// the types may already have been queued by this definition, but another definition that reuses the entry still needs them
+			capturedTypes = new ArrayList<DefinedType>();
+			capturedSet = Collections.newSetFromMap(new IdentityHashMap<DefinedType, Boolean>());
+			try {
+				Map<String, Object> content = formatUncached(definition, type, fragment);
+				entry = typeCache.put(type, fragment, definition.getId(), consultedNamespaces, capturedTypes, content);
+			}
+			finally {
+				if (previousNamespaces != null) {
+					previousNamespaces.addAll(consultedNamespaces);
+				}
+				if (previousTypes != null) {
+					for (DefinedType capturedType : capturedTypes) {
+						if (previousSet.add(capturedType)) {
+							previousTypes.add(capturedType);
+						}
+					}
+				}
+				consultedNamespaces = previousNamespaces;
+				capturedTypes = previousTypes;
+				capturedSet = previousSet;
+			}
+		}
+		else {
+			// if we are formatting a larger fragment, it depends on the same checks
+			if (consultedNamespaces != null) {
+				consultedNamespaces.addAll(entry.getNamespaces());
+			}
+			for (DefinedType referencedType : entry.getReferencedTypes()) {
+				reference(referencedType);
+			}
+		}
+		// shared types are only hashed once
+		if (knownHashes != null && fragment == SwaggerTypeCache.Fragment.DEFINITION) {
+			knownHashes.put(entry.getContent(), entry.getHash());
+		}
+		return entry.getContent();
+	}
+	
+	private void reference(DefinedType type) {
+		if (capturedTypes != null && capturedSet.add(type)) {
+			capturedTypes.add(type);
+		}
+		if (discoveredTypes.add(type)) {
+			referencedTypes.add(type);
+		}
+	}
+	
+	// stops the formatting if it was cancelled or is running past its deadline
+	private void checkpoint() {
+		if (cancellation != null && cancellation.isCancelled()) {
+			throw new SwaggerCancelledException("The formatting was cancelled");
+		}
+		if (deadline != null && System.currentTimeMillis() > deadline.getTime()) {
+			throw new SwaggerCancelledException("The formatting did not finish before the deadline: " + deadline);
+		}
+	}
+	
+	// whether the type is part of the definition itself, the outcome is recorded as it determines whether a formatted type can be reused in another definition
+	private boolean isLocal(SwaggerDefinition definition, Type type) {
+		if (definition == null) {
+			return false;
+		}
+		String namespace = type.getNamespace();
+		if (namespace != null && consultedNamespaces != null) {
+			consultedNamespaces.add(namespace);
+		}
+		return definition.getId().equals(namespace);
+	}
+	
 	private Map<String, Object> formatDefinedType(SwaggerDefinition definition, Type type, boolean isRoot) {
+		checkpoint();
 		Map<String, Object> content = new LinkedHashMap<String, Object>();
 		Integer minOccurs = ValueUtils.getValue(MinOccursProperty.getInstance(), type.getProperties());
 		Integer maxOccurs = ValueUtils.getValue(MaxOccursProperty.getInstance(), type.getProperties());
@@ -449,7 +740,7 @@ public class SwaggerFormatter {
 			}
 			content.put("minItems", minOccurs == null ? 1 : minOccurs);
 			// if it is a not a type that is defined in this definition, unfold it internally
-			if (definition == null || !definition.getId().equals(superType.getNamespace())) {
+			if (!isLocal(definition, superType)) {
 				content.put("items", formatDefinedType(definition, superType, false));
 			}
 			else {
@@ -462,7 +753,7 @@ public class SwaggerFormatter {
 			boolean expandInline = this.expandInline;
 			Map<String, Object> targetMap;
 			// if the supertype is a type that exists within the definition, reference it
-			if (!expandInline && type.getSuperType() != null && definition != null && definition.getId().equals(type.getSuperType().getNamespace())) {
+			if (!expandInline && type.getSuperType() != null && isLocal(definition, type.getSuperType())) {
 				List<Object> allOf = new ArrayList<Object>();
 				Map<String, Object> parent = new LinkedHashMap<String, Object>();
 				parent.put("$ref", "#/definitions/" + type.getSuperType().getName());
@@ -479,54 +770,15 @@ public class SwaggerFormatter {
 			}
 			formatCommonProperties(type, targetMap, true, type.getProperties());
 			if (type instanceof ComplexType) {
-				List<String> required = new ArrayList<String>();
-				targetMap.put("required", required);
-				Map<String, Object> properties = new LinkedHashMap<String, Object>();
-				Map<String, Object> additionalProperties = new LinkedHashMap<String, Object>();
-				for (Element<?> child : expandInline ? TypeUtils.getAllChildren((ComplexType) type) : (ComplexType) type) {
-					Value<Integer> property = child.getProperty(MinOccursProperty.getInstance());
-					String name = child.getName();
-					boolean isAttribute = false;
-					if (name.startsWith("@")) {
-						name = name.substring(1);
-						isAttribute = true;
-					}
-					Map<String, Object> childProperties = formatElement(definition, child, true, false);
-					Value<String> dynamicName = child.getProperty(DynamicNameProperty.getInstance());
-					if (dynamicName != null && dynamicName.getValue() != null && child.getType().isList(child.getProperties()) && childProperties.get("items") != null) {
-						Map<String, Object> itemsMap = (Map<String, Object>) childProperties.get("items");
-						// remove the dynamic field itself, from both the required and the properties
-						List<String> itemsRequired = (List<String>) itemsMap.get("required");
-						if (itemsRequired != null) {
-							itemsRequired.remove(dynamicName.getValue());
-						}
-						Map<String, Object> itemsPropertiesMap = (Map<String, Object>) itemsMap.get("properties");
-						if (itemsPropertiesMap != null) {
-							itemsPropertiesMap.remove(dynamicName.getValue());
-						}
-						additionalProperties.putAll(itemsMap);
-					}
-					else {
-						properties.put(name, childProperties);
-						if (property == null || property.getValue() != 0) {
-							required.add(name);
-						}
-					}
-					if (isAttribute) {
-						Map<String, Object> xml = new HashMap<String, Object>();
-						xml.put("attribute", true);
-						xml.put("name", name);
-						childProperties.put("xml", xml);
-					}
+				Map<String, Object> children = formatChildren(definition, (ComplexType) type, expandInline);
+				if (children.containsKey("required")) {
+					targetMap.put("required", children.get("required"));
 				}
-				if (required.isEmpty()) {
-					targetMap.remove("required");
+				if (children.containsKey("properties")) {
+					targetMap.put("properties", children.get("properties"));
 				}
-				if (!properties.isEmpty()) {
-					targetMap.put("properties", properties);
-				}
-				if (!additionalProperties.isEmpty()) {
-					content.put("additionalProperties", additionalProperties);
+				if (children.containsKey("additionalProperties")) {
+					content.put("additionalProperties", children.get("additionalProperties"));
 				}
 			}
 		}
@@ -534,6 +786,7 @@ public class SwaggerFormatter {
 	}
 	
 	private Map<String, Object> formatElement(SwaggerDefinition definition, Element<?> element, boolean isPartOfObject, boolean ignoreMaxOccurs) {
+		checkpoint();
 		Integer maxOccurs = ValueUtils.getValue(MaxOccursProperty.getInstance(), element.getProperties());
 		Map<String, Object> content = new LinkedHashMap<String, Object>();
 		if (!ignoreMaxOccurs && maxOccurs != null && maxOccurs != 1) {
@@ -544,7 +797,7 @@ public class SwaggerFormatter {
 		}
 		else {
 			// we are referencing a defined type
-			if (definition != null && definition.getId().equals(element.getType().getNamespace())) {
+			if (isLocal(definition, element.getType())) {
 				Map<String, Object> schema = new LinkedHashMap<String, Object>();
 				schema.put("$ref", "#/definitions/" + element.getType().getName());
 				content.put("schema", schema);
@@ -562,68 +815,79 @@ public class SwaggerFormatter {
 					content.put("schema", schema);
 				}
 				// make sure it is (eventually) defined
-				referencedTypes.add((DefinedType) element.getType());
+				reference((DefinedType) element.getType());
 			}
 			else {
 				formatCommonProperties(element.getType(), content, isPartOfObject, element.getProperties());
 				
 				if (element.getType() instanceof ComplexType) {
-					List<String> required = new ArrayList<String>();
-					content.put("required", required);
-					Map<String, Object> properties = new LinkedHashMap<String, Object>();
-					Map<String, Object> additionalProperties = new LinkedHashMap<String, Object>();
-					for (Element<?> child : TypeUtils.getAllChildren((ComplexType) element.getType())) {
-						Value<Integer> property = child.getProperty(MinOccursProperty.getInstance());
-						String name = child.getName();
-						boolean isAttribute = false;
-						if (name.startsWith("@")) {
-							name = name.substring(1);
-							isAttribute = true;
-						}
-						Map<String, Object> childProperties = formatElement(definition, child, true, false);
-						Value<String> dynamicName = child.getProperty(DynamicNameProperty.getInstance());
-						// only supported if it is a list!
-						if (dynamicName != null && dynamicName.getValue() != null && child.getType().isList(child.getProperties()) && childProperties.get("items") != null) {
-							Map<String, Object> itemsMap = (Map<String, Object>) childProperties.get("items");
-							// remove the dynamic field itself, from both the required and the properties
-							List<String> itemsRequired = (List<String>) itemsMap.get("required");
-							if (itemsRequired != null) {
-								itemsRequired.remove(dynamicName.getValue());
-							}
-							Map<String, Object> itemsPropertiesMap = (Map<String, Object>) itemsMap.get("properties");
-							if (itemsPropertiesMap != null) {
-								itemsPropertiesMap.remove(dynamicName.getValue());
-							}
-							additionalProperties.putAll(itemsMap);
-						}
-						else {
-							properties.put(name, childProperties);
-							if (property == null || property.getValue() != 0) {
-								required.add(name);
-							}
-						}
-						if (isAttribute) {
-							Map<String, Object> xml = new HashMap<String, Object>();
-							xml.put("attribute", true);
-							xml.put("name", name);
-							childProperties.put("xml", xml);
-						}
-					}
-					if (required.isEmpty()) {
-						content.remove("required");
-					}
-					if (!properties.isEmpty()) {
-						content.put("properties", properties);
-					}
-					if (!additionalProperties.isEmpty()) {
-						content.put("additionalProperties", additionalProperties);
-					}
+					content.putAll(formatChildren(definition, (ComplexType) element.getType(), true));
 				}
 			}
 		}
 		return content;
 	}
 	
+	@SuppressWarnings("unchecked")
+	private Map<String, Object> formatChildrenContent(SwaggerDefinition definition, ComplexType type, boolean allChildren) {
+		Map<String, Object> content = new LinkedHashMap<String, Object>();
+		List<String> required = new ArrayList<String>();
+		Map<String, Object> properties = new LinkedHashMap<String, Object>();
+		Map<String, Object> additionalProperties = new LinkedHashMap<String, Object>();
+		for (Element<?> child : allChildren ? TypeUtils.getAllChildren(type) : type) {
+			Value<Integer> property = child.getProperty(MinOccursProperty.getInstance());
+			String name = child.getName();
+			boolean isAttribute = false;
+			if (name.startsWith("@")) {
+				name = name.substring(1);
+				isAttribute = true;
+			}
+			Map<String, Object> childProperties = formatElement(definition, child, true, false);
+			Value<String> dynamicName = child.getProperty(DynamicNameProperty.getInstance());
+			// only supported if it is a list!
+			if (dynamicName != null && dynamicName.getValue() != null && child.getType().isList(child.getProperties()) && childProperties.get("items") != null) {
+				Map<String, Object> itemsMap = (Map<String, Object>) childProperties.get("items");
+				// remove the dynamic field itself, from both the required and the properties
+				// these can be shared with other types through the cache, so we remove from a copy
+				List<String> itemsRequired = (List<String>) itemsMap.get("required");
+				if (itemsRequired != null) {
+					itemsRequired = new ArrayList<String>(itemsRequired);
+					itemsRequired.remove(dynamicName.getValue());
+					itemsMap.put("required", itemsRequired);
+				}
+				Map<String, Object> itemsPropertiesMap = (Map<String, Object>) itemsMap.get("properties");
+				if (itemsPropertiesMap != null) {
+					itemsPropertiesMap = new LinkedHashMap<String, Object>(itemsPropertiesMap);
+					itemsPropertiesMap.remove(dynamicName.getValue());
+					itemsMap.put("properties", itemsPropertiesMap);
+				}
+				additionalProperties.putAll(itemsMap);
+			}
+			else {
+				properties.put(name, childProperties);
+				if (property == null || property.getValue() != 0) {
+					required.add(name);
+				}
+			}
+			if (isAttribute) {
+				Map<String, Object> xml = new HashMap<String, Object>();
+				xml.put("attribute", true);
+				xml.put("name", name);
+				childProperties.put("xml", xml);
+			}
+		}
+		if (!required.isEmpty()) {
+			content.put("required", required);
+		}
+		if (!properties.isEmpty()) {
+			content.put("properties", properties);
+		}
+		if (!additionalProperties.isEmpty()) {
+			content.put("additionalProperties", additionalProperties);
+		}
+		return content;
+	}
+	
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	private void formatCommonProperties(Type type, Map<String, Object> content, boolean isPartOfObject, Value<?>...properties) {
 		Integer minOccurs = ValueUtils.getValue(MinOccursProperty.getInstance(), properties);
@@ -847,4 +1111,70 @@ public class SwaggerFormatter {
 		this.includeDocumentation = includeDocumentation;
 	}
 
+	public boolean isShareComponents() {
+		return shareComponents;
+	}
+
+	/**
+	 * Identical parameters and responses that are used by multiple operations are written once in the top level sections and referenced from the operations
+	 */
+	public void setShareComponents(boolean shareComponents) {
+		this.shareComponents = shareComponents;
+	}
+
+	public Date getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * When the deadline passes the formatting is stopped with a SwaggerCancelledException, it is checked at every operation and type
+	 */
+	public void setDeadline(Date deadline) {
+		this.deadline = deadline;
+	}
+
+	public SwaggerCancellation getCancellation() {
+		return cancellation;
+	}
+
+	public void setCancellation(SwaggerCancellation cancellation) {
+		this.cancellation = cancellation;
+	}
+
+	public SwaggerProgressListener getProgressListener() {
+		return progressListener;
+	}
+
+	public void setProgressListener(SwaggerProgressListener progressListener) {
+		this.progressListener = progressListener;
+	}
+
+	SwaggerTypeCache getTypeCache() {
+		return typeCache;
+	}
+
+	/**
+	 * Formatted types are shared through this cache, it should only be shared between formatters with the same settings
+	 */
+	void setTypeCache(SwaggerTypeCache typeCache) {
+		this.typeCache = typeCache;
+	}
+
+	/**
+	 * A new formatter with the same settings, the formatter itself keeps state while formatting so each thread needs its own
+	 */
+	SwaggerFormatter copy() {
+		SwaggerFormatter formatter = new SwaggerFormatter();
+		formatter.setExpandInline(expandInline);
+		formatter.setAllowDefinedTypeReferences(allowDefinedTypeReferences);
+		formatter.setAllowCustomFormats(allowCustomFormats);
+		formatter.setIncludeDocumentation(includeDocumentation);
+		formatter.setShareComponents(shareComponents);
+		formatter.setDeadline(deadline);
+		formatter.setCancellation(cancellation);
+		formatter.setProgressListener(progressListener);
+		formatter.setTypeCache(typeCache);
+		return formatter;
+	}
+
 }
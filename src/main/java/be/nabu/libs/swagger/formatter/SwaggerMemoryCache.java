@@ -0,0 +1,295 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.swagger.formatter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps rendered output in direct memory so it does not count towards the heap.
+ * The memory is allocated as a few fixed size slabs (up to the max size) which are never released, entries are carved out of them in blocks.
+ * When new content does not fit, the least recently used entries are evicted and their blocks are reused, so the max size limits the actual off-heap memory.
+ * Entries that are being written out when they are evicted keep their blocks until the write is done.
+ * Because the blocks are reused, get() returns a copy, use write() to send the content without copying it.
+ */
+public class SwaggerMemoryCache implements SwaggerCache {
+
+	private static final int CHUNK_SIZE = 8192;
+	private static final int BLOCK_SIZE = 4096;
+	private static final int SLAB_SIZE = 16 * 1024 * 1024;
+
+	private long maxSize;
+	private int blockSize, slabSize;
+	private long size, allocated;
+	private long hits, misses, evictions;
+	private List<Slab> slabs = new ArrayList<Slab>();
+	private Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	public SwaggerMemoryCache(long maxSize) {
+		this(maxSize, BLOCK_SIZE, SLAB_SIZE);
+	}
+
+	/**
+	 * The slab size is the largest entry that can be cached, it is rounded down to a multiple of the block size
+	 */
+	public SwaggerMemoryCache(long maxSize, int blockSize, int slabSize) {
+		this.maxSize = maxSize;
+		this.blockSize = blockSize;
+		this.slabSize = (int) (Math.min(slabSize, maxSize) / blockSize) * blockSize;
+	}
+
+	@Override
+	public ByteBuffer get(String key) {
+		Entry entry = acquire(key);
+		if (entry == null) {
+			return null;
+		}
+		try {
+			ByteBuffer copy = ByteBuffer.allocate(entry.length);
+			copy.put(entry.view());
+			copy.flip();
+			return copy.asReadOnlyBuffer();
+		}
+		finally {
+			release(entry);
+		}
+	}
+
+	@Override
+	public boolean write(String key, WritableByteChannel target) throws IOException {
+		Entry entry = acquire(key);
+		if (entry == null) {
+			return false;
+		}
+		try {
+			ByteBuffer buffer = entry.view();
+			while (buffer.hasRemaining()) {
+				target.write(buffer);
+			}
+			return true;
+		}
+		finally {
+			release(entry);
+		}
+	}
+
+	@Override
+	public boolean write(String key, OutputStream output) throws IOException {
+		Entry entry = acquire(key);
+		if (entry == null) {
+			return false;
+		}
+		try {
+			ByteBuffer buffer = entry.view();
+			// copy in chunks, we don't want to pull the whole document back on the heap
+			byte[] chunk = new byte[Math.min(CHUNK_SIZE, buffer.remaining())];
+			while (buffer.hasRemaining()) {
+				int length = Math.min(chunk.length, buffer.remaining());
+				buffer.get(chunk, 0, length);
+				output.write(chunk, 0, length);
+			}
+			return true;
+		}
+		finally {
+			release(entry);
+		}
+	}
+
+	@Override
+	public void put(String key, byte[] content) {
+		// never going to fit
+		if (content.length == 0 || content.length > slabSize) {
+			return;
+		}
+		Entry entry = reserve(key, content.length);
+		if (entry == null) {
+			return;
+		}
+		// the blocks are reserved for this entry, nobody else touches them so we can copy without holding the lock
+		ByteBuffer buffer = entry.slab.buffer.duplicate();
+		buffer.position(entry.block * blockSize);
+		buffer.put(content);
+		synchronized(this) {
+			Entry previous = entries.put(key, entry);
+			if (previous != null) {
+				discard(previous);
+			}
+			size += entry.length;
+		}
+	}
+
+	@Override
+	public synchronized void remove(String key) {
+		Entry entry = entries.remove(key);
+		if (entry != null) {
+			discard(entry);
+		}
+	}
+
+	public synchronized void clear() {
+		for (Entry entry : entries.values()) {
+			discard(entry);
+		}
+		entries.clear();
+	}
+
+	private synchronized Entry acquire(String key) {
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		entry.leases++;
+		return entry;
+	}
+
+	private synchronized void release(Entry entry) {
+		entry.leases--;
+		if (entry.discarded && entry.leases == 0) {
+			entry.slab.used.clear(entry.block, entry.block + entry.blocks);
+		}
+	}
+
+	// the entry is no longer reachable, its blocks are returned once nobody is reading them
+	private void discard(Entry entry) {
+		entry.discarded = true;
+		size -= entry.length;
+		if (entry.leases == 0) {
+			entry.slab.used.clear(entry.block, entry.block + entry.blocks);
+		}
+	}
+
+	private synchronized Entry reserve(String key, int length) {
+		int blocks = (length + blockSize - 1) / blockSize;
+		while (true) {
+			for (Slab slab : slabs) {
+				int block = slab.find(blocks);
+				if (block >= 0) {
+					return new Entry(slab, block, blocks, length);
+				}
+			}
+			// only allocate new memory while we are below the max size
+			int available = (int) Math.min(slabSize, (maxSize - allocated) / blockSize * blockSize);
+			if (available >= blocks * blockSize) {
+				Slab slab = new Slab(ByteBuffer.allocateDirect(available), available / blockSize);
+				slabs.add(slab);
+				allocated += available;
+				// claim the blocks like any other allocation
+				return new Entry(slab, slab.find(blocks), blocks, length);
+			}
+			Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+			// nothing left to evict, the remaining blocks are still being written out
+			if (!iterator.hasNext()) {
+				return null;
+			}
+			Map.Entry<String, Entry> eldest = iterator.next();
+			iterator.remove();
+			discard(eldest.getValue());
+			evictions++;
+		}
+	}
+
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * The size of the cached content
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * The direct memory that is allocated for the slabs
+	 */
+	public synchronized long getAllocated() {
+		return allocated;
+	}
+
+	public synchronized int getEntries() {
+		return entries.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	private static class Slab {
+		private ByteBuffer buffer;
+		private BitSet used = new BitSet();
+		private int blocks;
+
+		public Slab(ByteBuffer buffer, int blocks) {
+			this.buffer = buffer;
+			this.blocks = blocks;
+		}
+
+		// first fit, returns the first block of a free run or -1 if there is none
+		public int find(int amount) {
+			int start = used.nextClearBit(0);
+			while (start + amount <= blocks) {
+				int end = used.nextSetBit(start);
+				if (end < 0 || end - start >= amount) {
+					used.set(start, start + amount);
+					return start;
+				}
+				start = used.nextClearBit(end);
+			}
+			return -1;
+		}
+	}
+
+	private class Entry {
+		private Slab slab;
+		private int block, blocks, length;
+		private int leases;
+		private boolean discarded;
+
+		public Entry(Slab slab, int block, int blocks, int length) {
+			this.slab = slab;
+			this.block = block;
+			this.blocks = blocks;
+			this.length = length;
+		}
+
+		public ByteBuffer view() {
+			ByteBuffer buffer = slab.buffer.duplicate();
+			buffer.limit(block * blockSize + length);
+			buffer.position(block * blockSize);
+			return buffer.slice().asReadOnlyBuffer();
+		}
+	}
+}
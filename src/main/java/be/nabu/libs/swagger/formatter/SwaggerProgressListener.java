@@ -0,0 +1,33 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.swagger.formatter;
+
+/**
+ * Receives progress updates from the formatter, when used in a catalog it is called from multiple threads
+ */
+public interface SwaggerProgressListener {
+	/**
+	 * The definition id allows a listener that is shared by multiple definitions to keep them apart
+	 */
+	public void operationFormatted(String definitionId, int formatted, int total);
+	
+	/**
+	 * Pending are the referenced types that have been found but not yet formatted
+	 */
+	public void typeFormatted(String definitionId, int formatted, int pending);
+}
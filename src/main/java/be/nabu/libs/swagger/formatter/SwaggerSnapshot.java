@@ -0,0 +1,419 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.swagger.formatter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import be.nabu.libs.swagger.api.SwaggerDefinition;
+import be.nabu.libs.types.TypeUtils;
+import be.nabu.libs.types.api.ComplexContent;
+import be.nabu.libs.types.api.Element;
+
+/**
+ * A compact binary form of the document model generated by the formatter, combined with the fingerprint of the definition it was generated from.
+ * Each value is written as a single byte tag followed by its content, strings are only written once and referenced by index afterwards.
+ * Beans (like the info) are stored as maps. Strings, booleans, the java number types and lists and maps of those survive a round trip as is.
+ * Any other value (e.g. a date used as a default value) is stored as its string representation, a restored document will marshal it as a string so it does not render the same as the original.
+ */
+public class SwaggerSnapshot {
+
+	private static final int MAGIC = 0x4e535747;
+	private static final int VERSION = 1;
+
+	private static final int NULL = 0, FALSE = 1, TRUE = 2, INTEGER = 3, LONG = 4, DOUBLE = 5, STRING = 6, STRING_REFERENCE = 7, MAP = 8, LIST = 9, BIG_DECIMAL = 10, BIG_INTEGER = 11, FLOAT = 12;
+
+	private String fingerprint;
+	private Map<String, Object> document;
+
+	public SwaggerSnapshot(String fingerprint, Map<String, Object> document) {
+		this.fingerprint = fingerprint;
+		this.document = document;
+	}
+
+	/**
+	 * Formats the definition and wraps it in a snapshot
+	 */
+	public static SwaggerSnapshot create(SwaggerFormatter formatter, SwaggerDefinition definition) {
+		return new SwaggerSnapshot(formatter.fingerprint(definition), formatter.formatToMap(definition));
+	}
+
+	/**
+	 * Whether this snapshot is still valid for the given definition when formatted with the given formatter
+	 * A snapshot without a fingerprint (because the definition could not be fingerprinted) is never valid
+	 */
+	public boolean isValid(SwaggerFormatter formatter, SwaggerDefinition definition) {
+		return fingerprint != null && fingerprint.equals(formatter.fingerprint(definition));
+	}
+
+	public void write(OutputStream output) throws IOException {
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(output));
+		data.writeInt(MAGIC);
+		data.writeByte(VERSION);
+		data.writeUTF(fingerprint == null ? "" : fingerprint);
+		new Encoder(data).write(document);
+		data.flush();
+	}
+
+	public static SwaggerSnapshot read(InputStream input) throws IOException {
+		return read(input, -1);
+	}
+
+	/**
+	 * Reads a snapshot of a known size (e.g. a file), lengths in the snapshot that exceed the remaining bytes are rejected before anything is allocated.
+	 * A corrupt or foreign snapshot always results in an IOException so the caller can fall back to formatting.
+	 */
+	@SuppressWarnings("unchecked")
+	public static SwaggerSnapshot read(InputStream input, long size) throws IOException {
+		CountingInputStream counting = new CountingInputStream(new BufferedInputStream(input));
+		DataInputStream data = new DataInputStream(counting);
+		if (data.readInt() != MAGIC) {
+			throw new IOException("Not a swagger snapshot");
+		}
+		int version = data.readUnsignedByte();
+		if (version != VERSION) {
+			throw new IOException("Unsupported swagger snapshot version: " + version);
+		}
+		String fingerprint = data.readUTF();
+		if (fingerprint.isEmpty()) {
+			fingerprint = null;
+		}
+		Object document = new Decoder(data, counting, size).read();
+		if (!(document instanceof Map)) {
+			throw new IOException("The swagger snapshot does not contain a document");
+		}
+		return new SwaggerSnapshot(fingerprint, (Map<String, Object>) document);
+	}
+
+	/**
+	 * Turns complex content (e.g. a bean instance) into a map so it can be stored
+	 */
+	public static Map<String, Object> toMap(ComplexContent content) {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		for (Element<?> child : TypeUtils.getAllChildren(content.getType())) {
+			Object value = content.get(child.getName());
+			if (value != null) {
+				map.put(child.getName(), toValue(value));
+			}
+		}
+		return map;
+	}
+
+	private static Object toValue(Object value) {
+		if (value instanceof ComplexContent) {
+			return toMap((ComplexContent) value);
+		}
+		else if (value instanceof Collection) {
+			List<Object> list = new ArrayList<Object>();
+			for (Object single : (Collection<?>) value) {
+				list.add(toValue(single));
+			}
+			return list;
+		}
+		return value;
+	}
+
+	private static class Encoder {
+		private DataOutputStream output;
+		private Map<String, Integer> strings = new HashMap<String, Integer>();
+
+		public Encoder(DataOutputStream output) {
+			this.output = output;
+		}
+
+		public void write(Object value) throws IOException {
+			if (value == null) {
+				output.writeByte(NULL);
+			}
+			else if (value instanceof Boolean) {
+				output.writeByte((Boolean) value ? TRUE : FALSE);
+			}
+			else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+				output.writeByte(INTEGER);
+				writeVarLong(((Number) value).intValue());
+			}
+			else if (value instanceof Long) {
+				output.writeByte(LONG);
+				writeVarLong((Long) value);
+			}
+			else if (value instanceof Double) {
+				output.writeByte(DOUBLE);
+				output.writeDouble((Double) value);
+			}
+			// a float widened to a double prints differently (1.1f becomes 1.100000023841858)
+			else if (value instanceof Float) {
+				output.writeByte(FLOAT);
+				output.writeFloat((Float) value);
+			}
+			else if (value instanceof BigDecimal) {
+				output.writeByte(BIG_DECIMAL);
+				writeString(value.toString());
+			}
+			else if (value instanceof BigInteger) {
+				output.writeByte(BIG_INTEGER);
+				writeString(value.toString());
+			}
+			else if (value instanceof Map) {
+				Map<?, ?> map = (Map<?, ?>) value;
+				output.writeByte(MAP);
+				writeVarLong(map.size());
+				for (Map.Entry<?, ?> entry : map.entrySet()) {
+					writeString(entry.getKey().toString());
+					write(entry.getValue());
+				}
+			}
+			else if (value instanceof Collection) {
+				Collection<?> collection = (Collection<?>) value;
+				output.writeByte(LIST);
+				writeVarLong(collection.size());
+				for (Object single : collection) {
+					write(single);
+				}
+			}
+			else if (value instanceof Object[]) {
+				write(Arrays.asList((Object[]) value));
+			}
+			else if (value instanceof ComplexContent) {
+				write(toMap((ComplexContent) value));
+			}
+			else {
+				writeString(value.toString());
+			}
+		}
+
+		// writes a string tag, the first occurrence is written in full, every subsequent one as an index in the string table
+		private void writeString(String value) throws IOException {
+			Integer index = strings.get(value);
+			if (index == null) {
+				strings.put(value, strings.size());
+				output.writeByte(STRING);
+				byte[] bytes = value.getBytes("UTF-8");
+				writeVarLong(bytes.length);
+				output.write(bytes);
+			}
+			else {
+				output.writeByte(STRING_REFERENCE);
+				writeVarLong(index);
+			}
+		}
+
+		private void writeVarLong(long value) throws IOException {
+			// zigzag so small negative numbers stay small
+			long encoded = (value << 1) ^ (value >> 63);
+			while ((encoded & ~0x7FL) != 0) {
+				output.writeByte((int) ((encoded & 0x7F) | 0x80));
+				encoded >>>= 7;
+			}
+			output.writeByte((int) encoded);
+		}
+	}
+
+	private static class CountingInputStream extends FilterInputStream {
+		private long count;
+
+		public CountingInputStream(InputStream input) {
+			super(input);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int read = super.read();
+			if (read >= 0) {
+				count++;
+			}
+			return read;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			int read = super.read(bytes, offset, length);
+			if (read > 0) {
+				count += read;
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long amount) throws IOException {
+			long skipped = super.skip(amount);
+			count += skipped;
+			return skipped;
+		}
+	}
+
+	private static class Decoder {
+		// the document is not that deep, this protects against a stack overflow on corrupt data
+		private static final int MAX_DEPTH = 256;
+		// without a known size we never allocate more than this up front, a bogus length runs into the end of the stream instead
+		private static final int CHUNK_SIZE = 8192;
+
+		private DataInputStream input;
+		private CountingInputStream counting;
+		private long size;
+		private int depth;
+		private List<String> strings = new ArrayList<String>();
+
+		public Decoder(DataInputStream input, CountingInputStream counting, long size) {
+			this.input = input;
+			this.counting = counting;
+			this.size = size;
+		}
+
+		public Object read() throws IOException {
+			if (++depth > MAX_DEPTH) {
+				throw new IOException("The swagger snapshot is nested too deeply");
+			}
+			try {
+				return readValue();
+			}
+			finally {
+				depth--;
+			}
+		}
+
+		// checks a length read from the snapshot, each unit takes at least the given amount of bytes
+		private int readLength(int minimumBytes) throws IOException {
+			long length = readVarLong();
+			if (length < 0 || length > Integer.MAX_VALUE) {
+				throw new IOException("Invalid length in swagger snapshot: " + length);
+			}
+			if (size >= 0 && length * minimumBytes > size - counting.count) {
+				throw new IOException("Length in swagger snapshot exceeds the remaining data: " + length);
+			}
+			return (int) length;
+		}
+
+		private Object readValue() throws IOException {
+			int tag = input.readUnsignedByte();
+			switch (tag) {
+				case NULL: return null;
+				case FALSE: return false;
+				case TRUE: return true;
+				case INTEGER: return (int) readVarLong();
+				case LONG: return readVarLong();
+				case DOUBLE: return input.readDouble();
+				case FLOAT: return input.readFloat();
+				case BIG_DECIMAL:
+				case BIG_INTEGER:
+					String number = readString(input.readUnsignedByte());
+					try {
+						return tag == BIG_DECIMAL ? new BigDecimal(number) : new BigInteger(number);
+					}
+					catch (NumberFormatException e) {
+						throw new IOException("Invalid number in swagger snapshot: " + number, e);
+					}
+				case STRING:
+				case STRING_REFERENCE:
+					return readString(tag);
+				case MAP:
+					// a key and a value take at least one byte each
+					int size = readLength(2);
+					Map<String, Object> map = new LinkedHashMap<String, Object>();
+					for (int i = 0; i < size; i++) {
+						String key = readString(input.readUnsignedByte());
+						map.put(key, read());
+					}
+					return map;
+				case LIST:
+					int length = readLength(1);
+					List<Object> list = new ArrayList<Object>(Math.min(length, CHUNK_SIZE));
+					for (int i = 0; i < length; i++) {
+						list.add(read());
+					}
+					return list;
+				default:
+					throw new IOException("Unknown tag in swagger snapshot: " + tag);
+			}
+		}
+
+		private String readString(int tag) throws IOException {
+			if (tag == STRING) {
+				int length = readLength(1);
+				byte[] bytes;
+				if (length <= CHUNK_SIZE) {
+					bytes = new byte[length];
+					input.readFully(bytes);
+				}
+				else {
+					ByteArrayOutputStream buffer = new ByteArrayOutputStream(CHUNK_SIZE);
+					byte[] chunk = new byte[CHUNK_SIZE];
+					int remaining = length;
+					while (remaining > 0) {
+						int amount = Math.min(chunk.length, remaining);
+						input.readFully(chunk, 0, amount);
+						buffer.write(chunk, 0, amount);
+						remaining -= amount;
+					}
+					bytes = buffer.toByteArray();
+				}
+				String value = new String(bytes, "UTF-8");
+				strings.add(value);
+				return value;
+			}
+			else if (tag == STRING_REFERENCE) {
+				long index = readVarLong();
+				if (index < 0 || index >= strings.size()) {
+					throw new IOException("Invalid string reference in swagger snapshot: " + index);
+				}
+				return strings.get((int) index);
+			}
+			throw new IOException("Expected a string in swagger snapshot, found tag: " + tag);
+		}
+
+		private long readVarLong() throws IOException {
+			long encoded = 0;
+			int shift = 0;
+			int current;
+			do {
+				if (shift > 63) {
+					throw new IOException("Invalid number in swagger snapshot");
+				}
+				current = input.readUnsignedByte();
+				encoded |= (long) (current & 0x7F) << shift;
+				shift += 7;
+			}
+			while ((current & 0x80) != 0);
+			return (encoded >>> 1) ^ -(encoded & 1);
+		}
+	}
+
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	public Map<String, Object> getDocument() {
+		return document;
+	}
+
+}
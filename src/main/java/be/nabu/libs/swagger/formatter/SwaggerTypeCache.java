@@ -0,0 +1,173 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.swagger.formatter;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import be.nabu.libs.types.api.DefinedType;
+import be.nabu.libs.types.api.Type;
+
+/**
+ * Shares formatted types between definitions, both root types and the children of types that are expanded inline.
+ * The only thing a definition contributes to the formatting of a type is its id, which decides whether a nested type is referenced or inlined.
+ * We record every namespace that was checked while formatting, another definition can reuse the result if each of those checks has the same outcome for its id.
+ * The formatted content is shared as is, it must not be modified afterwards.
+ * Only the most recently used types are kept, the cache does not notice changes to the types themselves so it must be cleared when they are reloaded.
+ */
+class SwaggerTypeCache {
+
+	/**
+	 * The part of a type that was formatted
+	 */
+	enum Fragment {
+		// the type as it appears in the definitions section
+		DEFINITION,
+		// the children declared by the type itself
+		CHILDREN,
+		// the children including those inherited from supertypes
+		ALL_CHILDREN
+	}
+
+	private int maxTypes;
+	private Map<Key, List<Entry>> entries;
+
+	public SwaggerTypeCache(final int maxTypes) {
+		this.maxTypes = maxTypes;
+		this.entries = new LinkedHashMap<Key, List<Entry>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, List<Entry>> eldest) {
+				return size() > maxTypes;
+			}
+		};
+	}
+
+	public Entry get(Type type, Fragment fragment, String definitionId) {
+		List<Entry> list;
+		synchronized(entries) {
+			list = entries.get(new Key(type, fragment));
+		}
+		if (list != null) {
+			for (Entry entry : list) {
+				if (entry.isValidFor(definitionId)) {
+					return entry;
+				}
+			}
+		}
+		return null;
+	}
+
+	public Entry put(Type type, Fragment fragment, String definitionId, Set<String> namespaces, List<DefinedType> referencedTypes, Map<String, Object> content) {
+		Key key = new Key(type, fragment);
+		List<Entry> list;
+		synchronized(entries) {
+			list = entries.get(key);
+			if (list == null) {
+				list = new CopyOnWriteArrayList<Entry>();
+				entries.put(key, list);
+			}
+		}
+		Entry entry = new Entry(definitionId, namespaces, referencedTypes, content);
+		list.add(entry);
+		return entry;
+	}
+
+	public void clear() {
+		synchronized(entries) {
+			entries.clear();
+		}
+	}
+
+	public int getMaxTypes() {
+		return maxTypes;
+	}
+
+	// types don't necessarily implement equals() in a way that is useful here, we want the instance
+	private static class Key {
+		private Type type;
+		private Fragment fragment;
+
+		public Key(Type type, Fragment fragment) {
+			this.type = type;
+			this.fragment = fragment;
+		}
+
+		@Override
+		public boolean equals(Object object) {
+			return object instanceof Key && ((Key) object).type == type && ((Key) object).fragment == fragment;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(type) + fragment.hashCode();
+		}
+	}
+
+	public static class Entry {
+		private String definitionId;
+		private Set<String> namespaces;
+		private List<DefinedType> referencedTypes;
+		private Map<String, Object> content;
+		private volatile Long hash;
+
+		Entry(String definitionId, Set<String> namespaces, List<DefinedType> referencedTypes, Map<String, Object> content) {
+			this.definitionId = definitionId;
+			this.namespaces = namespaces;
+			this.referencedTypes = referencedTypes;
+			this.content = content;
+		}
+
+		public boolean isValidFor(String otherDefinitionId) {
+			if (definitionId.equals(otherDefinitionId)) {
+				return true;
+			}
+			for (String namespace : namespaces) {
+				if (namespace.equals(definitionId) != namespace.equals(otherDefinitionId)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		public Set<String> getNamespaces() {
+			return namespaces;
+		}
+
+		public List<DefinedType> getReferencedTypes() {
+			return referencedTypes;
+		}
+
+		public Map<String, Object> getContent() {
+			return content;
+		}
+
+		/**
+		 * The structural hash of the content as calculated by SwaggerDiff, calculated once
+		 */
+		public long getHash() {
+			if (hash == null) {
+				hash = SwaggerDiff.hash(content, null);
+			}
+			return hash;
+		}
+	}
+}
@@ -0,0 +1,186 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.swagger.formatter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import be.nabu.libs.swagger.api.SwaggerDefinition;
+import be.nabu.libs.swagger.api.SwaggerMethod;
+import be.nabu.libs.swagger.api.SwaggerPath;
+import be.nabu.libs.swagger.api.SwaggerSecuritySetting;
+
+/**
+ * Formats a definition once and assembles documents that only contain the operations a caller has access to.
+ * An operation is accessible if it (or the definition if the operation has none) has no security settings, or if the caller has all the scopes of at least one of them.
+ * Definitions (and shared parameters and responses) that can not be reached from the remaining operations are left out.
+ */
+public class SwaggerView {
+
+	private static final String[] SECTIONS = new String[] { "definitions", "parameters", "responses" };
+
+	private SwaggerFormatter formatter;
+	private Map<String, Object> document;
+	private List<Operation> operations = new ArrayList<Operation>();
+	// the references of each definition, parameter and response, keyed by the reference itself
+	private Map<String, Set<String>> references = new HashMap<String, Set<String>>();
+
+	@SuppressWarnings("unchecked")
+	public SwaggerView(SwaggerFormatter formatter, SwaggerDefinition definition) {
+		this.formatter = formatter;
+		this.document = formatter.formatToMap(definition);
+		Map<String, Object> paths = (Map<String, Object>) document.get("paths");
+		if (paths != null && definition.getPaths() != null) {
+			for (SwaggerPath path : definition.getPaths()) {
+				Map<String, Object> methods = (Map<String, Object>) paths.get(path.getPath());
+				if (methods != null && path.getMethods() != null) {
+					for (SwaggerMethod method : path.getMethods()) {
+						Map<String, Object> content = (Map<String, Object>) methods.get(method.getMethod());
+						if (content != null) {
+							List<SwaggerSecuritySetting> security = method.getSecurity() == null ? definition.getGlobalSecurity() : method.getSecurity();
+							operations.add(new Operation(path.getPath(), method.getMethod(), security, content, getReferences(content)));
+						}
+					}
+				}
+			}
+		}
+		for (String section : SECTIONS) {
+			Map<String, Object> content = (Map<String, Object>) document.get(section);
+			if (content != null) {
+				for (Map.Entry<String, Object> entry : content.entrySet()) {
+					references.put("#/" + section + "/" + entry.getKey(), getReferences(entry.getValue()));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Assembles the document for a caller with the given scopes, the parts are shared with the full document and must not be modified
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<String, Object> assemble(Collection<String> scopes) {
+		Map<String, Object> assembled = new LinkedHashMap<String, Object>(document);
+		Set<String> reachable = new HashSet<String>();
+		Deque<String> pending = new ArrayDeque<String>();
+		if (document.containsKey("paths")) {
+			Map<String, Object> paths = new LinkedHashMap<String, Object>();
+			for (Operation operation : operations) {
+				if (operation.isAccessible(scopes)) {
+					Map<String, Object> methods = (Map<String, Object>) paths.get(operation.path);
+					if (methods == null) {
+						methods = new LinkedHashMap<String, Object>();
+						paths.put(operation.path, methods);
+					}
+					methods.put(operation.method, operation.content);
+					pending.addAll(operation.references);
+				}
+			}
+			assembled.put("paths", paths);
+		}
+		while (!pending.isEmpty()) {
+			String reference = pending.pop();
+			if (reachable.add(reference) && references.containsKey(reference)) {
+				pending.addAll(references.get(reference));
+			}
+		}
+		for (String section : SECTIONS) {
+			Map<String, Object> content = (Map<String, Object>) document.get(section);
+			if (content != null) {
+				Map<String, Object> pruned = new LinkedHashMap<String, Object>();
+				for (Map.Entry<String, Object> entry : content.entrySet()) {
+					if (reachable.contains("#/" + section + "/" + entry.getKey())) {
+						pruned.put(entry.getKey(), entry.getValue());
+					}
+				}
+				assembled.put(section, pruned);
+			}
+		}
+		return assembled;
+	}
+
+	public void format(Collection<String> scopes, OutputStream output) throws IOException {
+		formatter.write(assemble(scopes), output);
+	}
+
+	public Map<String, Object> getDocument() {
+		return document;
+	}
+
+	private static Set<String> getReferences(Object content) {
+		Set<String> references = new HashSet<String>();
+		collectReferences(content, references);
+		return references;
+	}
+
+	private static void collectReferences(Object content, Set<String> references) {
+		if (content instanceof Map) {
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) content).entrySet()) {
+				if ("$ref".equals(entry.getKey()) && entry.getValue() instanceof String) {
+					references.add((String) entry.getValue());
+				}
+				else {
+					collectReferences(entry.getValue(), references);
+				}
+			}
+		}
+		else if (content instanceof Collection) {
+			for (Object child : (Collection<?>) content) {
+				collectReferences(child, references);
+			}
+		}
+	}
+
+	private static class Operation {
+		private String path, method;
+		private List<SwaggerSecuritySetting> security;
+		private Map<String, Object> content;
+		private Set<String> references;
+
+		public Operation(String path, String method, List<SwaggerSecuritySetting> security, Map<String, Object> content, Set<String> references) {
+			this.path = path;
+			this.method = method;
+			this.security = security;
+			this.content = content;
+			this.references = references;
+		}
+
+		public boolean isAccessible(Collection<String> scopes) {
+			if (security == null || security.isEmpty()) {
+				return true;
+			}
+			for (SwaggerSecuritySetting setting : security) {
+				List<String> required = setting.getScopes() == null ? Collections.<String>emptyList() : setting.getScopes();
+				if (scopes != null && scopes.containsAll(required) || required.isEmpty()) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
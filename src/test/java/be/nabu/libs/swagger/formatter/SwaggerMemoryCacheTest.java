@@ -0,0 +1,131 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.swagger.formatter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class SwaggerMemoryCacheTest extends TestCase {
+
+	public void testEntriesInSameSlab() throws IOException {
+		SwaggerMemoryCache cache = new SwaggerMemoryCache(1024 * 1024);
+		cache.put("a", "AAAA".getBytes("UTF-8"));
+		cache.put("b", "BBBB".getBytes("UTF-8"));
+		cache.put("c", "CCCC".getBytes("UTF-8"));
+		assertEquals(3, cache.getEntries());
+		assertEquals("AAAA", read(cache, "a"));
+		assertEquals("BBBB", read(cache, "b"));
+		assertEquals("CCCC", read(cache, "c"));
+	}
+
+	public void testReadBackAfterEviction() throws IOException {
+		// room for 9 blocks spread over 3 slabs
+		SwaggerMemoryCache cache = new SwaggerMemoryCache(36864, 4096, 16384);
+		for (int i = 0; i < 50; i++) {
+			cache.put("key" + i, content(i, 1000 + i * 200));
+			assertTrue(cache.getAllocated() <= cache.getMaxSize());
+			// everything that is still cached must have its own content
+			for (int j = 0; j <= i; j++) {
+				ByteBuffer buffer = cache.get("key" + j);
+				if (buffer != null) {
+					byte[] bytes = new byte[buffer.remaining()];
+					buffer.get(bytes);
+					assertTrue(Arrays.equals(content(j, 1000 + j * 200), bytes));
+				}
+			}
+		}
+		assertTrue(cache.getEvictions() > 0);
+		assertNotNull(cache.get("key49"));
+	}
+
+	public void testChannelWrite() throws IOException {
+		SwaggerMemoryCache cache = new SwaggerMemoryCache(1024 * 1024);
+		cache.put("a", content(1, 10000));
+		cache.put("b", content(2, 5000));
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		assertTrue(cache.write("a", Channels.newChannel(output)));
+		assertTrue(Arrays.equals(content(1, 10000), output.toByteArray()));
+		assertFalse(cache.write("c", Channels.newChannel(output)));
+	}
+
+	public void testRemoveReusesSpace() throws IOException {
+		SwaggerMemoryCache cache = new SwaggerMemoryCache(8192, 4096, 8192);
+		cache.put("a", content(1, 4096));
+		cache.put("b", content(2, 4096));
+		cache.remove("a");
+		cache.put("c", content(3, 4096));
+		assertEquals(8192, cache.getAllocated());
+		assertEquals(0, cache.getEvictions());
+		assertNull(cache.get("a"));
+		assertTrue(Arrays.equals(content(2, 4096), bytes(cache, "b")));
+		assertTrue(Arrays.equals(content(3, 4096), bytes(cache, "c")));
+	}
+
+	public void testEvictionDuringWrite() throws IOException {
+		final SwaggerMemoryCache cache = new SwaggerMemoryCache(8192, 4096, 8192);
+		cache.put("a", content(1, 4096));
+		cache.put("b", content(2, 4096));
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		// while "a" is being written, new content evicts it, its blocks must not be reused until the write is done
+		cache.write("a", new OutputStream() {
+			private boolean evicted;
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+			@Override
+			public void write(byte[] bytes, int offset, int length) throws IOException {
+				if (!evicted) {
+					evicted = true;
+					cache.put("c", content(3, 4096));
+					cache.put("d", content(4, 4096));
+				}
+				output.write(bytes, offset, length);
+			}
+		});
+		assertTrue(Arrays.equals(content(1, 4096), output.toByteArray()));
+		assertNull(cache.get("a"));
+		// now that the write is done, the space of "a" can be used again
+		cache.put("e", content(5, 4096));
+		assertTrue(Arrays.equals(content(5, 4096), bytes(cache, "e")));
+	}
+
+	private static byte[] content(int seed, int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = (byte) (seed * 31 + i);
+		}
+		return bytes;
+	}
+
+	private static byte[] bytes(SwaggerMemoryCache cache, String key) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		assertTrue(cache.write(key, output));
+		return output.toByteArray();
+	}
+
+	private static String read(SwaggerMemoryCache cache, String key) throws IOException {
+		return new String(bytes(cache, key), "UTF-8");
+	}
+}